@@ -31,4 +31,11 @@ public class BluetoothClient {
     public BluetoothConnection openConnection() {
         return null;
     }
+
+    public BluetoothConnection openNewConnection() {
+        return null;
+    }
+
+    public void releaseConnection(BluetoothConnection ignored) {
+    }
 }
@@ -411,7 +411,7 @@ public class ZipSigner {
 
         // BASE64Encoder base64 = new BASE64Encoder();
         MessageDigest md = MessageDigest.getInstance("SHA1");
-        byte[] buffer = new byte[512];
+        byte[] buffer = new byte[8192];
         int num;
 
         // We sort the input entries by name, and add them to the
@@ -434,8 +434,12 @@ public class ZipSigner {
 
                 progressHelper.progress(ProgressEvent.PRORITY_NORMAL, resourceAdapter.getString(ResourceAdapter.Item.GENERATING_MANIFEST));
                 InputStream data = entry.getInputStream();
-                while ((num = data.read(buffer)) > 0) {
-                    md.update(buffer, 0, num);
+                try {
+                    while ((num = data.read(buffer)) > 0) {
+                        md.update(buffer, 0, num);
+                    }
+                } finally {
+                    data.close();
                 }
 
                 Attributes attr = null;
@@ -461,7 +461,7 @@ public class ZioEntry implements Cloneable {
             else {
                 // Hacky, inflate using a sequence of input streams that returns 1 byte more than the actual length of the data.  
                 // This extra dummy byte is required by InflaterInputStream when the data doesn't have the header and crc fields (as it is in zip files). 
-                return new InflaterInputStream(new SequenceInputStream(rawis, new ByteArrayInputStream(new byte[1])), new Inflater(true));
+                return newInflaterInputStream(new SequenceInputStream(rawis, new ByteArrayInputStream(new byte[1])));
             }
         }
 
@@ -473,10 +473,25 @@ public class ZioEntry implements Cloneable {
             // an extra "dummy" byte as input. This is required by the ZLIB native library 
             // in order to support certain optimizations.
             dataStream.setReturnDummyByte(true);
-            return new InflaterInputStream(dataStream, new Inflater(true));
+            return newInflaterInputStream(dataStream);
         } else return dataStream;
     }
 
+    // Inflates with a larger buffer than the default of 512 bytes, so each entry takes fewer
+    // reads of the zip file, and frees the native memory of the Inflater once it is closed.
+    private static InputStream newInflaterInputStream(InputStream in) {
+        return new InflaterInputStream(in, new Inflater(true), 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
     // Returns an output stream for writing an entry's data.
     public OutputStream getOutputStream() {
         entryOut = new ZioEntryOutputStream(compression, new ByteArrayOutputStream());
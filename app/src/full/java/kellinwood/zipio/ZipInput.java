@@ -209,18 +209,14 @@ public class ZipInput implements Closeable {
     public String readString(int length) throws IOException {
 
         byte[] buffer = new byte[length];
-        for (int i = 0; i < length; i++) {
-            buffer[i] = in.readByte();
-        }
+        in.readFully(buffer);
         return new String(buffer);
     }
 
     public byte[] readBytes(int length) throws IOException {
 
         byte[] buffer = new byte[length];
-        for (int i = 0; i < length; i++) {
-            buffer[i] = in.readByte();
-        }
+        in.readFully(buffer);
         return buffer;
     }
 
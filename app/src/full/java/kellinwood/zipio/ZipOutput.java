@@ -19,6 +19,7 @@ package kellinwood.zipio;
 import kellinwood.logging.LoggerInterface;
 import kellinwood.logging.LoggerManager;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -35,6 +36,12 @@ public class ZipOutput {
 
     static LoggerInterface log;
 
+    /**
+     * The headers are written a few bytes at a time, so they go through a buffer
+     * instead of straight to the file.
+     */
+    static final int BUFFER_SIZE = 65536;
+
     String outputFilename;
     OutputStream out = null;
     int filePointer = 0;
@@ -56,13 +63,13 @@ public class ZipOutput {
 
     private void init(File ofile) throws IOException {
         if (ofile.exists()) ofile.delete();
-        out = new FileOutputStream(ofile);
+        out = new BufferedOutputStream(new FileOutputStream(ofile), BUFFER_SIZE);
         if (getLogger().isDebugEnabled()) ZipListingHelper.listHeader(getLogger());
 
     }
 
     public ZipOutput(OutputStream os) throws IOException {
-        out = os;
+        out = new BufferedOutputStream(os, BUFFER_SIZE);
     }
 
     private static LoggerInterface getLogger() {
@@ -99,6 +106,8 @@ public class ZipOutput {
 
         centralEnd.write(this);
 
+        // the buffer has to be written out before the errors from closing are ignored
+        if (out != null) out.flush();
         if (out != null) try {
             out.close();
         } catch (Throwable t) {
@@ -5,28 +5,68 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 public class BluetoothClient {
     private static final String TAG = "BluetoothClient";
 
+    /**
+     * Connections whose last response was read in full, kept so that the next file from
+     * the same peer can be requested straight away instead of setting up a new RFCOMM
+     * connection, which takes a lot longer than sending the request itself.
+     */
+    private static final Map<String, BluetoothConnection> IDLE_CONNECTIONS = new HashMap<>();
+
+    private final String macAddress;
     private final BluetoothDevice device;
 
     public BluetoothClient(String macAddress) {
+        this.macAddress = macAddress;
         device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(macAddress);
     }
 
+    /**
+     * @return An idle connection to this device if there is one, otherwise a new one.
+     * @see #releaseConnection(BluetoothConnection)
+     */
     public BluetoothConnection openConnection() throws IOException {
+        synchronized (IDLE_CONNECTIONS) {
+            BluetoothConnection idle = IDLE_CONNECTIONS.remove(macAddress);
+            if (idle != null) {
+                return idle;
+            }
+        }
+        return openNewConnection();
+    }
 
+    public BluetoothConnection openNewConnection() throws IOException {
         BluetoothConnection connection = null;
         try {
-            BluetoothSocket socket = device.createInsecureRfcommSocketToServiceRecord(BluetoothConstants.fdroidUuid());
+            BluetoothSocket socket =
+                    device.createInsecureRfcommSocketToServiceRecord(BluetoothConstants.fdroidUuid());
             connection = new BluetoothConnection(socket);
             connection.open();
             return connection;
-        } finally {
+        } catch (IOException e) {
             if (connection != null) {
                 connection.closeQuietly();
             }
+            throw e;
+        }
+    }
+
+    /**
+     * Keeps {@code connection} for the next {@link #openConnection()}.  Only call this
+     * once the whole response has been read from it.
+     */
+    public void releaseConnection(BluetoothConnection connection) {
+        BluetoothConnection previous;
+        synchronized (IDLE_CONNECTIONS) {
+            previous = IDLE_CONNECTIONS.put(macAddress, connection);
+        }
+        if (previous != null && previous != connection) {
+            previous.closeQuietly();
         }
     }
 }
@@ -7,18 +7,22 @@ import android.util.Log;
 import android.webkit.MimeTypeMap;
 
 import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.nearby.httpish.FileDetails;
 import org.fdroid.fdroid.nearby.httpish.Request;
 import org.fdroid.fdroid.nearby.httpish.Response;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import fi.iki.elonen.NanoHTTPD;
 
@@ -31,10 +35,17 @@ public class BluetoothServer extends Thread {
 
     private static final String TAG = "BluetoothServer";
 
+    /**
+     * Each client connection has its own thread, so waiting for index changes does not
+     * hold up other clients, but there should not be many threads doing nothing.
+     */
+    private static final int MAX_WAITING_FOR_CHANGES = 4;
+
     private BluetoothServerSocket serverSocket;
     private final List<ClientConnection> clients = new ArrayList<>();
 
     private final File webRoot;
+    private final SwapIndexWatcher indexWatcher = new SwapIndexWatcher(MAX_WAITING_FOR_CHANGES);
 
     public BluetoothServer(File webRoot) {
         this.webRoot = webRoot;
@@ -83,7 +94,7 @@ public class BluetoothServer extends Thread {
                         Utils.debugLog(TAG, "Server stopped after socket accepted from client, but before initiating connection.");
                         break;
                     }
-                    ClientConnection client = new ClientConnection(clientSocket, webRoot);
+                    ClientConnection client = new ClientConnection(clientSocket, webRoot, indexWatcher);
                     client.start();
                     clients.add(client);
                 }
@@ -95,12 +106,18 @@ public class BluetoothServer extends Thread {
 
     private static class ClientConnection extends Thread {
 
+        private static final String GZIP = "gzip";
+        private static final long MIN_COMPRESS_SIZE = 1024;
+        private static final long MAX_COMPRESS_SIZE = 8 * 1024 * 1024;
+
         private final BluetoothSocket socket;
         private final File webRoot;
+        private final SwapIndexWatcher indexWatcher;
 
-        ClientConnection(BluetoothSocket socket, File webRoot) {
+        ClientConnection(BluetoothSocket socket, File webRoot, SwapIndexWatcher indexWatcher) {
             this.socket = socket;
             this.webRoot = webRoot;
+            this.indexWatcher = indexWatcher;
         }
 
         @Override
@@ -122,7 +139,18 @@ public class BluetoothServer extends Thread {
                 try {
                     Utils.debugLog(TAG, "Listening for new Bluetooth request from client.");
                     Request incomingRequest = Request.listenForRequest(connection);
-                    handleRequest(incomingRequest).send(connection);
+                    if (incomingRequest == null) {
+                        Utils.debugLog(TAG, "Client closed the Bluetooth connection.");
+                        break;
+                    }
+                    Response response = handleRequest(incomingRequest);
+                    try {
+                        response.send(connection);
+                    } finally {
+                        if (response.hasContentStream()) {
+                            Utils.closeQuietly(response.toContentStream());
+                        }
+                    }
                 } catch (IOException e) {
                     Log.e(TAG, "Error receiving incoming connection over bluetooth", e);
                     break;
@@ -144,25 +172,32 @@ public class BluetoothServer extends Thread {
             Response.Builder builder = null;
 
             try {
-                int statusCode = HttpURLConnection.HTTP_NOT_FOUND;
-                int totalSize = -1;
+                if (SwapIndexWatcher.isRequestFor(request.getPath())) {
+                    return serveIndexChanges(request);
+                }
+
+                // the same response as for GET, so HEAD also gets the size and ETag
+                Response resp = respond(request.getHeaders(), "/" + request.getPath());
+                FileDetails details = resp.toFileDetails();
+
+                long fileSize = details.getFileSize();
 
                 if (request.getMethod().equals(Request.Methods.HEAD)) {
+                    Utils.closeQuietly(resp.toContentStream());
                     builder = new Response.Builder();
+                } else if (shouldCompress(request, resp, fileSize)) {
+                    byte[] compressed = gzip(resp.toContentStream());
+                    builder = new Response.Builder(new ByteArrayInputStream(compressed))
+                            .setContentEncoding(GZIP);
+                    fileSize = compressed.length;
                 } else {
-                    HashMap<String, String> headers = new HashMap<>();
-                    Response resp = respond(headers, "/" + request.getPath());
-
                     builder = new Response.Builder(resp.toContentStream());
-                    statusCode = resp.getStatusCode();
-                    totalSize = resp.getFileSize();
                 }
 
-                // TODO: At this stage, will need to download the file to get this info.
-                // However, should be able to make totalDownloadSize and getCacheTag work without downloading.
                 return builder
-                        .setStatusCode(statusCode)
-                        .setFileSize(totalSize)
+                        .setStatusCode(resp.getStatusCode())
+                        .setFileSize(fileSize)
+                        .setETag(details.getCacheTag())
                         .build();
 
             } catch (Exception e) {
@@ -183,6 +218,57 @@ public class BluetoothServer extends Thread {
 
         }
 
+        /**
+         * Holds the request until the index changes, see {@link SwapIndexWatcher}.
+         */
+        private Response serveIndexChanges(Request request) throws InterruptedException {
+            String knownToken = request.getHeaderValue("If-None-Match");
+            File indexFile = SwapIndexWatcher.getIndexFile(new File(webRoot, request.getPath()));
+            String token = indexWatcher.waitForChange(indexFile, knownToken);
+            if (token == null) {
+                return new Response.Builder()
+                        .setStatusCode(HttpURLConnection.HTTP_UNAVAILABLE)
+                        .setFileSize(0)
+                        .build();
+            }
+            return new Response.Builder()
+                    .setStatusCode(token.equals(knownToken)
+                            ? HttpURLConnection.HTTP_NOT_MODIFIED : HttpURLConnection.HTTP_OK)
+                    .setFileSize(0)
+                    .setETag(token)
+                    .build();
+        }
+
+        /**
+         * Bluetooth is slow enough that compressing is always worth it for text, like
+         * {@code index.xml} and the HTML pages.  The JARs, APKs and icons are already
+         * compressed, so they are sent as they are.  The compressed file is held in memory
+         * because its length has to be sent first, hence the limit on the size.
+         */
+        private static boolean shouldCompress(Request request, Response response, long fileSize) {
+            String acceptEncoding = request.getHeaderValue("Accept-Encoding");
+            if (acceptEncoding == null || !acceptEncoding.toLowerCase(Locale.ENGLISH).contains(GZIP)
+                    || response.getStatusCode() != HttpURLConnection.HTTP_OK
+                    || fileSize < MIN_COMPRESS_SIZE || fileSize > MAX_COMPRESS_SIZE) {
+                return false;
+            }
+            String mimeType = getMimeTypeForFile(request.getPath());
+            return mimeType != null && (mimeType.startsWith("text/") || mimeType.endsWith("xml")
+                    || mimeType.endsWith("json"));
+        }
+
+        private static byte[] gzip(InputStream input) throws IOException {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try {
+                GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+                Utils.copy(input, gzipOutput);
+                gzipOutput.close();
+            } finally {
+                Utils.closeQuietly(input);
+            }
+            return output.toByteArray();
+        }
+
         private Response respond(Map<String, String> headers, String uri) {
             // Remove URL arguments
             uri = uri.trim().replace(File.separatorChar, '/');
@@ -301,6 +387,7 @@ public class BluetoothServer extends Thread {
                 } else {
                     if (etag.equals(header.get("if-none-match"))) {
                         res = createResponse(NanoHTTPD.Response.Status.NOT_MODIFIED, mime, "");
+                        res.addHeader("ETag", etag);
                     } else {
                         res = createResponse(NanoHTTPD.Response.Status.OK, mime, new FileInputStream(file));
                         res.addHeader("Content-Length", String.valueOf(fileLen));
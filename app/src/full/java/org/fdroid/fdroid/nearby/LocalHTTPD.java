@@ -46,6 +46,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.net.URLEncoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -86,6 +88,9 @@ public class LocalHTTPD extends NanoHTTPD {
 
     protected List<File> rootDirs;
 
+    private final SwapAsyncRunner asyncRunner;
+    private final SwapIndexWatcher indexWatcher;
+
     // Date format specified by RFC 7231 section 7.1.1.1.
     private static final DateFormat RFC_1123 = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
 
@@ -101,9 +106,17 @@ public class LocalHTTPD extends NanoHTTPD {
      * should not be added because it could expose exploits to the browser.
      */
     public LocalHTTPD(Context context, String hostname, int port, File webRoot, boolean useHttps) {
+        this(context, hostname, port, webRoot, useHttps, new SwapAsyncRunner());
+    }
+
+    LocalHTTPD(Context context, String hostname, int port, File webRoot, boolean useHttps,
+               SwapAsyncRunner asyncRunner) {
         super(hostname, port);
         rootDirs = Collections.singletonList(webRoot);
         this.context = new WeakReference<>(context.getApplicationContext());
+        this.asyncRunner = asyncRunner;
+        setAsyncRunner(asyncRunner);
+        indexWatcher = new SwapIndexWatcher(asyncRunner.getMaxThreads() / 2);
         if (useHttps) {
             enableHTTPS();
         }
@@ -327,6 +340,14 @@ public class LocalHTTPD extends NanoHTTPD {
         Map<String, String> parms = session.getParms();
         String uri = session.getUri();
 
+        if (asyncRunner.isTurningAway()) {
+            Response busy = newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, MIME_PLAINTEXT,
+                    "Too many connections, try again later.");
+            busy.addHeader("Retry-After", String.valueOf(SwapAsyncRunner.RETRY_AFTER_SECONDS));
+            busy.closeConnection(true);
+            return busy;
+        }
+
         if (BuildConfig.DEBUG) {
             System.out.println(session.getMethod() + " '" + uri + "' ");
 
@@ -361,7 +382,63 @@ public class LocalHTTPD extends NanoHTTPD {
                 return getInternalErrorResponse("given path is not a directory (" + homeDir + ").");
             }
         }
-        return respond(Collections.unmodifiableMap(header), session, uri);
+        if (SwapIndexWatcher.isRequestFor(uri)) {
+            // the client waits here for a long time, so this does not count towards its limit,
+            // and the connection is not reused for other requests
+            asyncRunner.stopCounting();
+            Response response = serveIndexChanges(header, new File(rootDirs.get(0), uri));
+            response.closeConnection(true);
+            return response;
+        }
+        Response response = respond(Collections.unmodifiableMap(header), session, uri);
+        if (asyncRunner.hasBacklog()) {
+            // hand this thread over to a waiting peer rather than keeping this connection alive
+            response.closeConnection(true);
+        }
+        return response;
+    }
+
+    @Override
+    protected ClientHandler createClientHandler(Socket finalAccept, InputStream inputStream) {
+        return new SwapClientHandler(inputStream, finalAccept);
+    }
+
+    /**
+     * Remembers which peer the connection is from, for {@link SwapAsyncRunner}.
+     */
+    class SwapClientHandler extends ClientHandler {
+        final InetAddress address;
+
+        SwapClientHandler(InputStream inputStream, Socket acceptSocket) {
+            super(inputStream, acceptSocket);
+            address = acceptSocket.getInetAddress();
+        }
+    }
+
+    /**
+     * Holds the request until the index changes, see {@link SwapIndexWatcher}.
+     */
+    private Response serveIndexChanges(Map<String, String> header, File file) {
+        String knownToken = header.get("if-none-match");
+        String token;
+        try {
+            token = indexWatcher.waitForChange(SwapIndexWatcher.getIndexFile(file), knownToken);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            token = null;
+        }
+        if (token == null) {
+            return newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, MIME_PLAINTEXT,
+                    "Too many clients waiting for changes.");
+        }
+        Response res;
+        if (token.equals(knownToken)) {
+            res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, MIME_PLAINTEXT, "");
+        } else {
+            res = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "");
+        }
+        res.addHeader("ETag", token);
+        return res;
     }
 
     private Response handlePost(IHTTPSession session) {
@@ -385,8 +462,8 @@ public class LocalHTTPD extends NanoHTTPD {
     Response serveFile(String uri, Map<String, String> header, File file, String mime) {
         Response res;
         try {
-            // Calculate etag
-            String etag = Integer.toHexString((file.getAbsolutePath() + file.lastModified() + "" + file.length()).hashCode());
+            String etag = getETag(file);
+            long fileLen = file.length();
 
             // Support (simple) skipping:
             long startFrom = 0;
@@ -400,6 +477,9 @@ public class LocalHTTPD extends NanoHTTPD {
                         if (minus > 0) {
                             startFrom = Long.parseLong(range.substring(0, minus));
                             endAt = Long.parseLong(range.substring(minus + 1));
+                        } else if (minus == 0) {
+                            // suffix range, i.e. the last so many bytes
+                            startFrom = Math.max(0, fileLen - Long.parseLong(range.substring(1)));
                         }
                     } catch (NumberFormatException ignored) {
                     }
@@ -416,8 +496,6 @@ public class LocalHTTPD extends NanoHTTPD {
 
             // Change return code and add Content-Range header when skipping is
             // requested
-            long fileLen = file.length();
-
             if (headerIfRangeMissingOrMatching && range != null && startFrom >= 0 && startFrom < fileLen) {
                 // range request that matches current etag
                 // and the startFrom of the range is satisfiable
@@ -429,7 +507,7 @@ public class LocalHTTPD extends NanoHTTPD {
                     res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
                     res.addHeader("ETag", etag);
                 } else {
-                    if (endAt < 0) {
+                    if (endAt < 0 || endAt >= fileLen) {
                         endAt = fileLen - 1;
                     }
                     long newLen = endAt - startFrom + 1;
@@ -437,8 +515,9 @@ public class LocalHTTPD extends NanoHTTPD {
                         newLen = 0;
                     }
 
+                    // each request has its own stream, so peers can fetch parts of the same file at once
                     FileInputStream fis = new FileInputStream(file);
-                    fis.skip(startFrom);
+                    fis.getChannel().position(startFrom);
 
                     res = newFixedLengthResponse(Response.Status.PARTIAL_CONTENT, mime, fis, newLen);
                     res.addHeader("Accept-Ranges", "bytes");
@@ -483,9 +562,18 @@ public class LocalHTTPD extends NanoHTTPD {
         return addResponseHeaders(res);
     }
 
+    /**
+     * A strong ETag built straight from the file's metadata, so it is cheap enough to
+     * work out on every request and changes whenever the file is replaced.
+     */
+    static String getETag(File file) {
+        return String.format(Locale.ENGLISH, "\"%x-%x-%x\"",
+                file.getAbsolutePath().hashCode(), file.lastModified(), file.length());
+    }
+
     private Response newFixedFileResponse(File file, String mime) throws FileNotFoundException {
         Response res;
-        res = newFixedLengthResponse(Response.Status.OK, mime, new FileInputStream(file), (int) file.length());
+        res = newFixedLengthResponse(Response.Status.OK, mime, new FileInputStream(file), file.length());
         addResponseHeaders(res);
         res.addHeader("Accept-Ranges", "bytes");
         return res;
@@ -2,6 +2,7 @@ package org.fdroid.fdroid.nearby;
 
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
@@ -13,9 +14,14 @@ import android.graphics.drawable.Drawable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
 import org.fdroid.fdroid.FDroidApp;
 import org.fdroid.fdroid.Hasher;
 import org.fdroid.fdroid.IndexUpdater;
+import org.fdroid.fdroid.IndexV1Updater;
 import org.fdroid.fdroid.Preferences;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Apk;
@@ -41,13 +47,21 @@ import java.security.cert.CertificateEncodingException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -72,10 +86,26 @@ public final class LocalRepoManager {
             "swap-tick-not-done.png",
     };
 
+    /**
+     * 48dp at xxxhdpi, the size of a launcher icon on the densest screens.
+     */
+    private static final int MAX_ICON_SIZE = 192;
+    private static final int MAX_ICON_THREADS = 4;
+    private static final int WEBP_QUALITY = 90;
+    private static final String WEBP_ICON_SUFFIX = ".webp";
+
     private final Map<String, App> apps = new ConcurrentHashMap<>();
 
+    /**
+     * The apps whose APK was put into the repo by {@link #copyApksToRepo()}, and which
+     * have not been updated or reinstalled since, see {@link #addApp(Context, String)}.
+     */
+    private final Set<String> copiedApks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private final SanitizedFile xmlIndexJar;
     private final SanitizedFile xmlIndexJarUnsigned;
+    private final SanitizedFile indexV1Jar;
+    private final SanitizedFile indexV1JarUnsigned;
     private final SanitizedFile webRoot;
     private final SanitizedFile fdroidDir;
     private final SanitizedFile fdroidDirCaps;
@@ -87,7 +117,7 @@ public final class LocalRepoManager {
     private static LocalRepoManager localRepoManager;
 
     @NonNull
-    public static LocalRepoManager get(Context context) {
+    public static synchronized LocalRepoManager get(Context context) {
         if (localRepoManager == null) {
             localRepoManager = new LocalRepoManager(context);
         }
@@ -109,6 +139,8 @@ public final class LocalRepoManager {
         iconsDir = new SanitizedFile(repoDir, "icons");
         xmlIndexJar = new SanitizedFile(repoDir, IndexUpdater.SIGNED_FILE_NAME);
         xmlIndexJarUnsigned = new SanitizedFile(repoDir, "index.unsigned.jar");
+        indexV1Jar = new SanitizedFile(repoDir, IndexV1Updater.SIGNED_FILE_NAME);
+        indexV1JarUnsigned = new SanitizedFile(repoDir, "index-v1.unsigned.jar");
 
         if (!fdroidDir.exists() && !fdroidDir.mkdir()) {
             Log.e(TAG, "Unable to create empty base: " + fdroidDir);
@@ -230,18 +262,6 @@ public final class LocalRepoManager {
         Utils.symlinkOrCopyFileQuietly(new SanitizedFile(new File(directory, symlinkPrefix), fileName), index);
     }
 
-    private void deleteContents(File path) {
-        if (path.exists()) {
-            for (File file : path.listFiles()) {
-                if (file.isDirectory()) {
-                    deleteContents(file);
-                } else {
-                    attemptToDelete(file);
-                }
-            }
-        }
-    }
-
     /**
      * Get the {@code index.jar} file that represents the local swap repo.
      */
@@ -249,12 +269,15 @@ public final class LocalRepoManager {
         return xmlIndexJar;
     }
 
-    public File getWebRoot() {
-        return webRoot;
+    /**
+     * Get the {@code index-v1.jar} file that represents the local swap repo.
+     */
+    public File getIndexV1Jar() {
+        return indexV1Jar;
     }
 
-    public void deleteRepo() {
-        deleteContents(repoDir);
+    public File getWebRoot() {
+        return webRoot;
     }
 
     public void copyApksToRepo() {
@@ -267,7 +290,14 @@ public final class LocalRepoManager {
 
             if (app.installedApk != null) {
                 SanitizedFile outFile = new SanitizedFile(repoDir, app.installedApk.apkName);
+                if (copiedApks.contains(packageName) && outFile.exists()) {
+                    continue; // already linked or copied for an earlier selection
+                }
+                if (!outFile.delete()) {
+                    Utils.debugLog(TAG, "No old " + outFile + " to replace");
+                }
                 if (Utils.symlinkOrCopyFileQuietly(app.installedApk.installedFile, outFile)) {
+                    copiedApks.add(packageName);
                     continue;
                 }
             }
@@ -276,9 +306,17 @@ public final class LocalRepoManager {
         }
     }
 
+    /**
+     * Adds {@code packageName} to the repo, unless it is there already from an earlier
+     * selection and has not been updated or reinstalled since.  Reading the signature and
+     * other details out of the APK is the slow part of building the swap repo.
+     */
     public void addApp(Context context, String packageName) {
         App app = null;
         try {
+            if (isUnchanged(apps.get(packageName), pm.getPackageInfo(packageName, 0))) {
+                return;
+            }
             InstalledApp installedApp = InstalledAppProvider.Helper.findByPackageName(context, packageName);
             app = App.getInstance(context, pm, installedApp, packageName);
             if (app == null || !app.isValid()) {
@@ -289,50 +327,132 @@ public final class LocalRepoManager {
             return;
         }
         Utils.debugLog(TAG, "apps.put: " + packageName);
+        copiedApks.remove(packageName);
         apps.put(packageName, app);
     }
 
+    /**
+     * Removes the apps which are not in {@code packageNames}, along with their APKs and
+     * icons in the repo.  The rest of the repo is kept as it is, so that changing which
+     * apps are swapped only does the work for the apps which were added or updated.
+     */
+    public void retainApps(Collection<String> packageNames) {
+        apps.keySet().retainAll(packageNames);
+        copiedApks.retainAll(packageNames);
+        Set<String> fileNames = new HashSet<>();
+        for (App app : apps.values()) {
+            fileNames.add(app.installedApk.apkName);
+            fileNames.add(App.getIconName(app.packageName, app.installedApk.versionCode));
+            fileNames.add(getIconName(app.packageName, app.installedApk.versionCode, WEBP_ICON_SUFFIX));
+        }
+        deleteFilesExcept(repoDir, ".apk", fileNames);
+        deleteFilesExcept(iconsDir, ".png", fileNames);
+        deleteFilesExcept(iconsDir, WEBP_ICON_SUFFIX, fileNames);
+    }
+
+    private static void deleteFilesExcept(File dir, String suffix, Set<String> fileNames) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(suffix) && !fileNames.contains(file.getName())) {
+                attemptToDelete(file);
+            }
+        }
+    }
+
+    private static boolean isUnchanged(@Nullable App app, PackageInfo packageInfo) {
+        return app != null && app.installedApk != null && app.lastUpdated != null
+                && app.installedApk.versionCode == packageInfo.versionCode
+                && app.lastUpdated.getTime() == packageInfo.lastUpdateTime;
+    }
+
+    /**
+     * Renders the icons of all apps which don't have them yet, a few at a time since
+     * rasterizing and compressing them is mostly CPU bound.
+     */
     public void copyIconsToRepo() {
-        ApplicationInfo appInfo;
+        int threads = Math.max(1, Math.min(MAX_ICON_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
         for (final App app : apps.values()) {
-            if (app.installedApk != null) {
-                try {
-                    appInfo = pm.getApplicationInfo(app.packageName, PackageManager.GET_META_DATA);
-                    copyIconToRepo(appInfo.loadIcon(pm), app.packageName, app.installedApk.versionCode);
-                } catch (PackageManager.NameNotFoundException e) {
-                    Log.e(TAG, "Error getting app icon", e);
-                }
+            if (app.installedApk == null) {
+                continue;
+            }
+            File icon = getIconFile(app.packageName, app.installedApk.versionCode, WEBP_ICON_SUFFIX);
+            if (app.lastUpdated != null && icon.lastModified() >= app.lastUpdated.getTime()) {
+                continue; // rendered for an earlier selection
             }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_LOWEST);
+                    try {
+                        ApplicationInfo appInfo = pm.getApplicationInfo(app.packageName,
+                                PackageManager.GET_META_DATA);
+                        copyIconToRepo(appInfo.loadIcon(pm), app.packageName, app.installedApk.versionCode);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        Log.e(TAG, "Error getting app icon", e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Extracts the icon from an APK and writes it to the repo as a PNG
+     * Extracts the icon from an APK and writes it to the repo, no bigger than
+     * {@link #MAX_ICON_SIZE}.  There is a WebP for {@code index-v1.json} and a PNG for
+     * {@code index.xml}, since clients which only know the XML index may not be able to
+     * decode WebP.
      */
     private void copyIconToRepo(Drawable drawable, String packageName, int versionCode) {
         Bitmap bitmap;
-        if (drawable instanceof BitmapDrawable) {
+        int width = Math.max(1, drawable.getIntrinsicWidth());
+        int height = Math.max(1, drawable.getIntrinsicHeight());
+        float scale = Math.min(1f, (float) MAX_ICON_SIZE / Math.max(width, height));
+        if (drawable instanceof BitmapDrawable && scale == 1f) {
             bitmap = ((BitmapDrawable) drawable).getBitmap();
         } else {
-            bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
-                    drawable.getIntrinsicHeight(), Config.ARGB_8888);
+            bitmap = Bitmap.createBitmap(Math.round(width * scale), Math.round(height * scale),
+                    Config.ARGB_8888);
             Canvas canvas = new Canvas(bitmap);
             drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
             drawable.draw(canvas);
         }
-        File png = getIconFile(packageName, versionCode);
+        writeIcon(bitmap, CompressFormat.PNG, 100, getIconFile(packageName, versionCode, ".png"));
+        // written last, so it marks the icons as done in copyIconsToRepo()
+        writeIcon(bitmap, CompressFormat.WEBP, WEBP_QUALITY,
+                getIconFile(packageName, versionCode, WEBP_ICON_SUFFIX));
+    }
+
+    private static void writeIcon(Bitmap bitmap, CompressFormat format, int quality, File file) {
         OutputStream out;
         try {
-            out = new BufferedOutputStream(new FileOutputStream(png));
-            bitmap.compress(CompressFormat.PNG, 100, out);
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            bitmap.compress(format, quality, out);
             out.close();
         } catch (Exception e) {
             Log.e(TAG, "Error copying icon to repo", e);
         }
     }
 
-    private File getIconFile(String packageName, int versionCode) {
-        return new File(iconsDir, App.getIconName(packageName, versionCode));
+    /**
+     * @param suffix either {@code .png} or {@link #WEBP_ICON_SUFFIX}
+     */
+    private File getIconFile(String packageName, int versionCode, String suffix) {
+        return new File(iconsDir, getIconName(packageName, versionCode, suffix));
+    }
+
+    private static String getIconName(String packageName, int versionCode, String suffix) {
+        String png = App.getIconName(packageName, versionCode);
+        return png.substring(0, png.lastIndexOf('.')) + suffix;
     }
 
     /**
@@ -501,23 +621,162 @@ public final class LocalRepoManager {
         }
     }
 
+    /**
+     * Helper class to aid in constructing index-v1.json file.  This has the same apps and
+     * packages as {@link IndexXmlBuilder}, so that clients can swap using
+     * {@link IndexV1Updater}, which parses much faster than the XML index.
+     */
+    public static final class IndexV1Builder {
+        @NonNull
+        private final JsonGenerator generator;
+
+        IndexV1Builder(OutputStream output) throws IOException {
+            generator = new JsonFactory().createGenerator(output, JsonEncoding.UTF8);
+        }
+
+        public void build(Map<String, App> apps) throws IOException {
+            generator.writeStartObject();
+
+            generator.writeObjectFieldStart("repo");
+            generator.writeNumberField("timestamp", System.currentTimeMillis());
+            generator.writeNumberField("version", 10);
+            generator.writeStringField("name", Preferences.get().getLocalRepoName()
+                    + " on " + FDroidApp.ipAddressString);
+            generator.writeStringField("icon", "blah.png");
+            generator.writeStringField("description", "A local FDroid repo generated from apps installed on "
+                    + Preferences.get().getLocalRepoName());
+            generator.writeEndObject();
+
+            generator.writeArrayFieldStart("apps");
+            for (App app : apps.values()) {
+                writeApp(app);
+            }
+            generator.writeEndArray();
+
+            generator.writeObjectFieldStart("packages");
+            for (App app : apps.values()) {
+                generator.writeArrayFieldStart(app.packageName);
+                writePackage(app);
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+
+            generator.writeEndObject();
+            generator.close();
+        }
+
+        private void writeApp(App app) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("packageName", app.packageName);
+            writeDate("added", app.added);
+            writeDate("lastUpdated", app.lastUpdated);
+            writeString("name", app.name);
+            writeString("summary", app.summary);
+            writeString("icon", getIconName(app.packageName, app.installedApk.versionCode, WEBP_ICON_SUFFIX));
+            writeString("description", app.description);
+            generator.writeStringField("license", "Unknown");
+            generator.writeArrayFieldStart("categories");
+            generator.writeString("LocalRepo");
+            generator.writeString(Preferences.get().getLocalRepoName());
+            generator.writeEndArray();
+            writeString("suggestedVersionName", app.installedApk.versionName);
+            generator.writeNumberField("suggestedVersionCode", app.installedApk.versionCode);
+            generator.writeEndObject();
+        }
+
+        private void writePackage(App app) throws IOException {
+            Apk apk = app.installedApk;
+            generator.writeStartObject();
+            generator.writeStringField("packageName", app.packageName);
+            writeString("versionName", apk.versionName);
+            generator.writeNumberField("versionCode", apk.versionCode);
+            generator.writeStringField("apkName", apk.apkName);
+            generator.writeStringField("hash", apk.hash);
+            generator.writeStringField("hashType", apk.hashType);
+            generator.writeStringField("sig", apk.sig.toLowerCase(Locale.US));
+            generator.writeNumberField("size", apk.installedFile.length());
+            writeDate("added", apk.added);
+            if (apk.minSdkVersion > Apk.SDK_VERSION_MIN_VALUE) {
+                generator.writeNumberField("minSdkVersion", apk.minSdkVersion);
+            }
+            if (apk.targetSdkVersion > apk.minSdkVersion) {
+                generator.writeNumberField("targetSdkVersion", apk.targetSdkVersion);
+            }
+            if (apk.maxSdkVersion < Apk.SDK_VERSION_MAX_VALUE) {
+                generator.writeNumberField("maxSdkVersion", apk.maxSdkVersion);
+            }
+            writeStrings("features", apk.features);
+            writeStrings("nativecode", apk.nativecode);
+            if (apk.requestedPermissions != null) {
+                generator.writeArrayFieldStart("uses-permission");
+                for (String permission : apk.requestedPermissions) {
+                    generator.writeStartArray();
+                    generator.writeString(permission);
+                    generator.writeNull();
+                    generator.writeEndArray();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+
+        /**
+         * Like {@link IndexXmlBuilder#tag(String, String)}, this skips the field if
+         * {@code text} is blank.
+         */
+        private void writeString(String name, String text) throws IOException {
+            if (!TextUtils.isEmpty(text)) {
+                generator.writeStringField(name, text);
+            }
+        }
+
+        private void writeStrings(String name, String[] values) throws IOException {
+            if (values != null && values.length > 0) {
+                generator.writeArrayFieldStart(name);
+                for (String value : values) {
+                    generator.writeString(value);
+                }
+                generator.writeEndArray();
+            }
+        }
+
+        private void writeDate(String name, Date date) throws IOException {
+            if (date != null) {
+                generator.writeNumberField(name, date.getTime());
+            }
+        }
+    }
+
     public void writeIndexJar() throws IOException, XmlPullParserException, LocalRepoKeyStore.InitException {
         BufferedOutputStream bo = new BufferedOutputStream(new FileOutputStream(xmlIndexJarUnsigned));
         JarOutputStream jo = new JarOutputStream(bo);
+        // the index is built once per swap session but may go over Bluetooth many times
+        jo.setLevel(Deflater.BEST_COMPRESSION);
         JarEntry je = new JarEntry(IndexUpdater.DATA_FILE_NAME);
         jo.putNextEntry(je);
         new IndexXmlBuilder().build(context, apps, jo);
         jo.close();
         bo.close();
+        signIndexJar(xmlIndexJarUnsigned, xmlIndexJar);
+
+        bo = new BufferedOutputStream(new FileOutputStream(indexV1JarUnsigned));
+        jo = new JarOutputStream(bo);
+        jo.setLevel(Deflater.BEST_COMPRESSION);
+        jo.putNextEntry(new JarEntry(IndexV1Updater.DATA_FILE_NAME));
+        new IndexV1Builder(jo).build(apps);
+        jo.close();
+        bo.close();
+        signIndexJar(indexV1JarUnsigned, indexV1Jar);
+    }
 
+    private void signIndexJar(File unsigned, File signed) throws IOException {
         try {
-            LocalRepoKeyStore.get(context).signZip(xmlIndexJarUnsigned, xmlIndexJar);
+            LocalRepoKeyStore.get(context).signZip(unsigned, signed);
         } catch (LocalRepoKeyStore.InitException e) {
             throw new IOException("Could not sign index - keystore failed to initialize");
         } finally {
-            attemptToDelete(xmlIndexJarUnsigned);
+            attemptToDelete(unsigned);
         }
-
     }
 
 }
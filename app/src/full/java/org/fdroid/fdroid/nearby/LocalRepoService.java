@@ -84,29 +84,46 @@ public class LocalRepoService extends IntentService {
         if (thread != null) {
             thread.interrupt();
         }
-        thread = new GenerateLocalRepoThread();
+        thread = new GenerateLocalRepoThread(packageNames);
         thread.start();
     }
 
     private class GenerateLocalRepoThread extends Thread {
         private static final String TAG = "GenerateLocalRepoThread";
 
+        private final String[] selectedApps;
+
+        GenerateLocalRepoThread(String[] selectedApps) {
+            this.selectedApps = selectedApps;
+        }
+
         @Override
         public void run() {
             android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_LOWEST);
-            runProcess(LocalRepoService.this, currentlyProcessedApps);
+            runProcess(LocalRepoService.this, selectedApps);
         }
     }
 
+    /**
+     * Each change to the selection starts a new run, and interrupting the previous
+     * one does not stop it, so the runs take turns on the lock of the
+     * {@link LocalRepoManager}.  Otherwise an older run could remove the apps a newer
+     * run just added, or write an index without them.
+     */
     public static void runProcess(Context context, String[] selectedApps) {
+        final LocalRepoManager lrm = LocalRepoManager.get(context);
+        synchronized (lrm) {
+            runProcess(context, lrm, selectedApps);
+        }
+    }
+
+    private static void runProcess(Context context, final LocalRepoManager lrm, String[] selectedApps) {
         try {
-            final LocalRepoManager lrm = LocalRepoManager.get(context);
-            broadcast(context, STATUS_PROGRESS, R.string.deleting_repo);
-            lrm.deleteRepo();
             for (String app : selectedApps) {
                 broadcast(context, STATUS_PROGRESS, context.getString(R.string.adding_apks_format, app));
                 lrm.addApp(context, app);
             }
+            lrm.retainApps(Arrays.asList(selectedApps));
             String urlString = Utils.getSharingUri(FDroidApp.repo).toString();
             lrm.writeIndexPage(urlString);
             broadcast(context, STATUS_PROGRESS, R.string.writing_index_jar);
@@ -119,10 +136,13 @@ public class LocalRepoService extends IntentService {
                 @Override
                 public void run() {
                     android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_LOWEST);
-                    lrm.copyIconsToRepo();
+                    synchronized (lrm) {
+                        lrm.copyIconsToRepo();
+                    }
                 }
             }.start();
 
+            SwapIndexWatcher.notifyIndexChanged();
             broadcast(context, STATUS_STARTED, null);
         } catch (IOException | XmlPullParserException | LocalRepoKeyStore.InitException e) {
             broadcast(context, STATUS_ERROR, e.getLocalizedMessage());
@@ -0,0 +1,321 @@
+package org.fdroid.fdroid.nearby;
+
+import org.fdroid.fdroid.Utils;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Runs the connections to {@link LocalHTTPD} on a bounded pool of threads, instead
+ * of NanoHTTPD's default of a new thread for every connection.  When many peers
+ * swap with this device at once, the extra connections wait in a bounded queue,
+ * and any single peer can only hold a few connections, so one busy or misbehaving
+ * client cannot starve the rest.  A peer's connections over that limit wait until
+ * one of its other connections is done.  Connections which do not fit in the queue
+ * get {@code 503 Service Unavailable} with a {@code Retry-After}, see
+ * {@link #isTurningAway()}.
+ */
+final class SwapAsyncRunner implements NanoHTTPD.AsyncRunner {
+    private static final String TAG = "SwapAsyncRunner";
+
+    static final int DEFAULT_MAX_THREADS = 16;
+    static final int DEFAULT_MAX_QUEUED = 64;
+
+    /**
+     * Well above what a single client uses: four icons being loaded in parallel, an
+     * APK or index download, and the wait for index changes, which is not counted
+     * anyway, see {@link #stopCounting()}.
+     */
+    static final int DEFAULT_MAX_CONNECTIONS_PER_CLIENT = 12;
+
+    /**
+     * Seconds for a client to wait before retrying after {@code 503 Service Unavailable}.
+     */
+    static final int RETRY_AFTER_SECONDS = 2;
+
+    private final int maxThreads;
+    private final int maxQueued;
+    private final int maxConnectionsPerClient;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Reads the request of each connection which does not fit in the queue, so it can
+     * be answered properly instead of just being closed.
+     */
+    private final ThreadPoolExecutor turnAwayExecutor;
+    private final ThreadLocal<Boolean> turningAway = new ThreadLocal<>();
+    private final ThreadLocal<NanoHTTPD.ClientHandler> current = new ThreadLocal<>();
+
+    /**
+     * Every connection which is waiting or running, so they can all be closed when the
+     * server stops.  Also guards the other collections.
+     */
+    private final List<NanoHTTPD.ClientHandler> handlers = new ArrayList<>();
+    private final Set<NanoHTTPD.ClientHandler> counted = new HashSet<>();
+    private final Map<InetAddress, Integer> connectionsPerClient = new HashMap<>();
+    private final Map<InetAddress, Queue<NanoHTTPD.ClientHandler>> waitingPerClient = new HashMap<>();
+    private int waitingCount;
+
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger peakQueued = new AtomicInteger();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+
+    SwapAsyncRunner() {
+        this(DEFAULT_MAX_THREADS, DEFAULT_MAX_QUEUED, DEFAULT_MAX_CONNECTIONS_PER_CLIENT);
+    }
+
+    SwapAsyncRunner(int maxThreads, int maxQueued, int maxConnectionsPerClient) {
+        this.maxThreads = maxThreads;
+        this.maxQueued = maxQueued;
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+        executor = createExecutor(maxThreads, maxQueued, "LocalHTTPD Request Processor #");
+        turnAwayExecutor = createExecutor(1, maxQueued, "LocalHTTPD Busy Responder #");
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, int queued, final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queued), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void exec(final NanoHTTPD.ClientHandler code) {
+        InetAddress address = getAddress(code);
+        boolean tooBusy = false;
+        synchronized (handlers) {
+            handlers.add(code);
+            Integer count = connectionsPerClient.get(address);
+            if (address == null || count == null || count < maxConnectionsPerClient) {
+                count(code, address);
+            } else if (waitingCount < maxQueued) {
+                Queue<NanoHTTPD.ClientHandler> waiting = waitingPerClient.get(address);
+                if (waiting == null) {
+                    waiting = new ArrayDeque<>();
+                    waitingPerClient.put(address, waiting);
+                }
+                waiting.add(code);
+                waitingCount++;
+                return;
+            } else {
+                tooBusy = true;
+            }
+        }
+        if (tooBusy) {
+            turnAway(code);
+        } else {
+            start(code);
+        }
+    }
+
+    /**
+     * Called by {@link NanoHTTPD.ClientHandler#run()} once its connection is done.
+     */
+    @Override
+    public void closed(NanoHTTPD.ClientHandler code) {
+        NanoHTTPD.ClientHandler next;
+        synchronized (handlers) {
+            if (!handlers.remove(code)) {
+                return;
+            }
+            next = release(code);
+        }
+        start(next);
+    }
+
+    @Override
+    public void closeAll() {
+        List<NanoHTTPD.ClientHandler> copy;
+        synchronized (handlers) {
+            copy = new ArrayList<>(handlers);
+            waitingPerClient.clear();
+            waitingCount = 0;
+        }
+        for (NanoHTTPD.ClientHandler handler : copy) {
+            handler.close();
+        }
+        int count = accepted.get();
+        Utils.debugLog(TAG, "Served " + count + " connections, turned away " + rejected.get()
+                + ", at most " + peakQueued.get() + " waiting, on average for "
+                + (count == 0 ? 0 : totalWaitMillis.get() / count) + "ms");
+    }
+
+    /**
+     * Stops counting the connection of the current thread towards the limit of its
+     * client, for requests which are held open for a long time, like the wait for
+     * index changes.
+     */
+    void stopCounting() {
+        NanoHTTPD.ClientHandler code = current.get();
+        if (code == null) {
+            return;
+        }
+        NanoHTTPD.ClientHandler next;
+        synchronized (handlers) {
+            next = release(code);
+        }
+        start(next);
+    }
+
+    /**
+     * @return whether the current thread only reads the request so it can answer that
+     * the server is too busy.
+     */
+    boolean isTurningAway() {
+        return Boolean.TRUE.equals(turningAway.get());
+    }
+
+    /**
+     * @return whether connections are waiting for a thread, in which case
+     * {@link LocalHTTPD} stops keeping connections alive so the threads go round.
+     */
+    boolean hasBacklog() {
+        if (!executor.getQueue().isEmpty()) {
+            return true;
+        }
+        synchronized (handlers) {
+            return waitingCount > 0;
+        }
+    }
+
+    int getMaxThreads() {
+        return maxThreads;
+    }
+
+    int getRejectedCount() {
+        return rejected.get();
+    }
+
+    int getPeakQueuedCount() {
+        return peakQueued.get();
+    }
+
+    private void count(NanoHTTPD.ClientHandler code, InetAddress address) {
+        counted.add(code);
+        Integer count = connectionsPerClient.get(address);
+        connectionsPerClient.put(address, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Must be called holding the lock on {@link #handlers}.
+     *
+     * @return the connection of the same client which can start now that
+     * {@code code} no longer counts towards its limit, if any.
+     */
+    private NanoHTTPD.ClientHandler release(NanoHTTPD.ClientHandler code) {
+        if (!counted.remove(code)) {
+            return null;
+        }
+        InetAddress address = getAddress(code);
+        Integer count = connectionsPerClient.get(address);
+        if (count == null || count <= 1) {
+            connectionsPerClient.remove(address);
+        } else {
+            connectionsPerClient.put(address, count - 1);
+        }
+        Queue<NanoHTTPD.ClientHandler> waiting = waitingPerClient.get(address);
+        if (waiting == null) {
+            return null;
+        }
+        NanoHTTPD.ClientHandler next = waiting.poll();
+        if (waiting.isEmpty()) {
+            waitingPerClient.remove(address);
+        }
+        waitingCount--;
+        count(next, address);
+        return next;
+    }
+
+    /**
+     * Runs {@code code} on the pool, or turns it away if the queue is full.  Turning
+     * it away lets the next waiting connection of the same client try in its place.
+     */
+    private void start(NanoHTTPD.ClientHandler code) {
+        while (code != null) {
+            final NanoHTTPD.ClientHandler handler = code;
+            final long queuedAt = System.currentTimeMillis();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        totalWaitMillis.addAndGet(System.currentTimeMillis() - queuedAt);
+                        current.set(handler);
+                        try {
+                            handler.run();
+                        } finally {
+                            current.remove();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (handlers) {
+                    code = release(handler);
+                }
+                turnAway(handler);
+                continue;
+            }
+            accepted.incrementAndGet();
+            int queued = executor.getQueue().size();
+            int peak;
+            do {
+                peak = peakQueued.get();
+            } while (queued > peak && !peakQueued.compareAndSet(peak, queued));
+            return;
+        }
+    }
+
+    private void turnAway(final NanoHTTPD.ClientHandler code) {
+        rejected.incrementAndGet();
+        Utils.debugLog(TAG, "Too busy for a new connection, answering with 503");
+        try {
+            turnAwayExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    turningAway.set(true);
+                    try {
+                        code.run();
+                    } finally {
+                        turningAway.remove();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Utils.debugLog(TAG, "Too busy to even answer, closing new connection");
+            code.close();
+            closed(code);
+        }
+    }
+
+    private static InetAddress getAddress(NanoHTTPD.ClientHandler code) {
+        if (code instanceof LocalHTTPD.SwapClientHandler) {
+            return ((LocalHTTPD.SwapClientHandler) code).address;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,154 @@
+package org.fdroid.fdroid.nearby;
+
+import android.net.Uri;
+
+import org.fdroid.fdroid.IndexV1Updater;
+import org.fdroid.fdroid.nearby.httpish.Request;
+import org.fdroid.fdroid.nearby.httpish.Response;
+import org.fdroid.fdroid.net.BluetoothDownloader;
+import org.fdroid.fdroid.net.Downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Lets swap clients wait until the index of the swap repo on this device changes, so
+ * they only run an update when there is something new, instead of polling for it.
+ * {@link LocalHTTPD} and {@link BluetoothServer} both serve this as a long-poll at
+ * {@link #FILE_NAME} in the repo: the client sends the token it got last time as
+ * {@code If-None-Match}, and the server only answers once the index has a different
+ * token, or with {@code 304 Not Modified} after {@link #WAIT_TIMEOUT}.
+ */
+public final class SwapIndexWatcher {
+
+    public static final String FILE_NAME = "index-changes";
+
+    private static final long WAIT_TIMEOUT = 60000;
+    private static final long RECHECK_INTERVAL = 5000;
+    private static final int READ_TIMEOUT = 90000;
+
+    private static final Object LOCK = new Object();
+
+    /**
+     * Each waiting client holds one of the threads of the server, so only some of them
+     * may be used for waiting.  Clients which are turned away poll instead.
+     */
+    private final int maxWaiting;
+    private int waiting;
+
+    SwapIndexWatcher(int maxWaiting) {
+        this.maxWaiting = maxWaiting;
+    }
+
+    static boolean isRequestFor(String path) {
+        return path.endsWith("/" + FILE_NAME);
+    }
+
+    /**
+     * @return the index file next to {@code requestedFile}, which is {@link #FILE_NAME} in a repo
+     */
+    static File getIndexFile(File requestedFile) {
+        return new File(requestedFile.getParentFile(), IndexV1Updater.SIGNED_FILE_NAME);
+    }
+
+    static String getToken(File indexFile) {
+        if (!indexFile.isFile()) {
+            return "none";
+        }
+        return Long.toHexString(indexFile.lastModified()) + "-" + Long.toHexString(indexFile.length());
+    }
+
+    /**
+     * Wakes up the waiting clients once the swap repo has been written.
+     */
+    static void notifyIndexChanged() {
+        synchronized (LOCK) {
+            LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * @return The token of the index once it differs from {@code knownToken}, the same
+     * token if it did not change within {@link #WAIT_TIMEOUT}, or {@code null} if too many
+     * clients are already waiting.
+     */
+    @Nullable
+    String waitForChange(File indexFile, @Nullable String knownToken) throws InterruptedException {
+        String token = getToken(indexFile);
+        if (!token.equals(knownToken)) {
+            return token;
+        }
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        synchronized (LOCK) {
+            if (waiting >= maxWaiting) {
+                return null;
+            }
+            waiting++;
+            try {
+                long remaining = WAIT_TIMEOUT;
+                while (token.equals(knownToken) && remaining > 0) {
+                    LOCK.wait(Math.min(remaining, RECHECK_INTERVAL));
+                    token = getToken(indexFile);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                waiting--;
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Asks the swap repo at {@code repoAddress} for the token of its index, waiting for it
+     * to be different from {@code knownToken}.
+     *
+     * @return The new token, or {@code knownToken} if nothing changed in the meantime.
+     * @throws IOException if the peer is busy or can't tell when its index changes
+     */
+    public static String requestChange(String repoAddress, @Nullable String knownToken) throws IOException {
+        Uri uri = Uri.parse(repoAddress);
+        if (BluetoothDownloader.isBluetoothUri(uri)) {
+            return requestChangeOverBluetooth(uri, knownToken);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(repoAddress + "/" + FILE_NAME).openConnection();
+        try {
+            connection.setConnectTimeout(Downloader.DEFAULT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (knownToken != null) {
+                connection.setRequestProperty("If-None-Match", knownToken);
+            }
+            return checkResponse(connection.getResponseCode(), connection.getHeaderField("ETag"), knownToken);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String requestChangeOverBluetooth(Uri uri, @Nullable String knownToken) throws IOException {
+        BluetoothConnection connection = new BluetoothClient(uri.getHost().replace("-", ":")).openNewConnection();
+        try {
+            Request request = Request.createGET(uri.getPath() + "/" + FILE_NAME, connection);
+            if (knownToken != null) {
+                request.addHeader("If-None-Match", knownToken);
+            }
+            Response response = request.send();
+            return checkResponse(response.getStatusCode(), response.toFileDetails().getCacheTag(), knownToken);
+        } finally {
+            connection.closeQuietly();
+        }
+    }
+
+    private static String checkResponse(int statusCode, @Nullable String token, @Nullable String knownToken)
+            throws IOException {
+        if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && knownToken != null) {
+            return knownToken;
+        } else if (statusCode == HttpURLConnection.HTTP_OK && token != null) {
+            return token;
+        }
+        throw new IOException("Swap peer can't tell when its index changes: " + statusCode);
+    }
+}
@@ -28,6 +28,7 @@ import org.fdroid.fdroid.data.Schema;
 import org.fdroid.fdroid.nearby.peers.Peer;
 import org.fdroid.fdroid.net.Downloader;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
@@ -77,6 +78,13 @@ public class SwapService extends Service {
     private static BluetoothAdapter bluetoothAdapter;
     private static WifiManager wifiManager;
     private static Timer pollConnectedSwapRepoTimer;
+    private static Thread watchConnectedSwapRepoThread;
+
+    /**
+     * The token of the connected peer's index as of the last update,
+     * see {@link SwapIndexWatcher#requestChange(String, String)}.
+     */
+    private static volatile String connectedSwapRepoToken;
 
     public static void stop(Context context) {
         Intent intent = new Intent(context, SwapService.class);
@@ -97,6 +105,7 @@ public class SwapService extends Service {
         if (getPeer() == null) {
             throw new IllegalStateException("Cannot connect to peer, no peer has been selected.");
         }
+        connectedSwapRepoToken = null;
         connectTo(getPeer());
         if (LocalHTTPDManager.isAlive() && getPeer().shouldPromptForSwapBack()) {
             askServerToSwapWithUs(peerRepo);
@@ -516,11 +525,55 @@ public class SwapService extends Service {
         pollConnectedSwapRepoTimer.schedule(timerTask, 5000);
     }
 
+    /**
+     * Waits for the index of the connected swap repo to change, and only then updates it.
+     * Peers which can't tell when their index changes are polled instead.
+     */
+    private void watchConnectedSwapRepo() {
+        stopPollingConnectedSwapRepo();
+        final Peer watchedPeer = peer;
+        if (watchedPeer == null) {
+            return;
+        }
+        watchConnectedSwapRepoThread = new Thread("watchConnectedSwapRepo") {
+            @Override
+            public void run() {
+                try {
+                    String knownToken = connectedSwapRepoToken;
+                    while (true) {
+                        String token = SwapIndexWatcher.requestChange(watchedPeer.getRepoAddress(), knownToken);
+                        if (isInterrupted()) {
+                            return;
+                        }
+                        connectedSwapRepoToken = token;
+                        if (knownToken != null && !knownToken.equals(token)) {
+                            connectTo(watchedPeer);
+                            return;
+                        }
+                        // the first token is for the index that was just updated
+                        knownToken = token;
+                    }
+                } catch (IOException e) {
+                    Utils.debugLog(TAG, "Polling swap repo instead of waiting for changes: " + e.getMessage());
+                    if (!isInterrupted()) {
+                        startPollingConnectedSwapRepo();
+                    }
+                }
+            }
+        };
+        watchConnectedSwapRepoThread.setDaemon(true);
+        watchConnectedSwapRepoThread.start();
+    }
+
     public void stopPollingConnectedSwapRepo() {
         if (pollConnectedSwapRepoTimer != null) {
             pollConnectedSwapRepoTimer.cancel();
             pollConnectedSwapRepoTimer = null;
         }
+        if (watchConnectedSwapRepoThread != null && watchConnectedSwapRepoThread != Thread.currentThread()) {
+            watchConnectedSwapRepoThread.interrupt();
+            watchConnectedSwapRepoThread = null;
+        }
     }
 
     /**
@@ -596,7 +649,7 @@ public class SwapService extends Service {
     }
 
     /**
-     * Reschedule an index update if the last one was successful.
+     * Wait for the next change to the index if the last update was successful.
      */
     private class PollForUpdatesReceiver extends BroadcastReceiver {
         @Override
@@ -604,7 +657,7 @@ public class SwapService extends Service {
             switch (intent.getIntExtra(UpdateService.EXTRA_STATUS_CODE, -1)) {
                 case UpdateService.STATUS_COMPLETE_AND_SAME:
                 case UpdateService.STATUS_COMPLETE_WITH_CHANGES:
-                    startPollingConnectedSwapRepo();
+                    watchConnectedSwapRepo();
                     break;
             }
         }
@@ -87,7 +87,7 @@ public class SwapSuccessView extends SwapView implements LoaderManager.LoaderCal
         repo = getActivity().getSwapService().getPeerRepo();
 
         adapter = new AppListAdapter(getContext(), getContext().getContentResolver().query(
-                AppProvider.getRepoUri(repo), AppMetadataTable.Cols.ALL, null, null, null));
+                AppProvider.getRepoUri(repo), AppMetadataTable.Cols.LIST, null, null, null));
         ListView listView = findViewById(R.id.list);
         listView.setAdapter(adapter);
 
@@ -116,7 +116,7 @@ public class SwapSuccessView extends SwapView implements LoaderManager.LoaderCal
                 ? AppProvider.getRepoUri(repo)
                 : AppProvider.getSearchUri(repo, currentFilterString);
 
-        return new CursorLoader(getActivity(), uri, AppMetadataTable.Cols.ALL,
+        return new CursorLoader(getActivity(), uri, AppMetadataTable.Cols.LIST,
                 null, null, AppMetadataTable.Cols.NAME);
     }
 
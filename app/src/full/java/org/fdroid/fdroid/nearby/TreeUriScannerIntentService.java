@@ -30,8 +30,9 @@ import android.os.Process;
 import android.util.Log;
 import android.widget.Toast;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.fdroid.fdroid.AddRepoIntentService;
 import org.fdroid.fdroid.IndexUpdater;
 import org.fdroid.fdroid.IndexV1Updater;
@@ -41,13 +42,14 @@ import org.fdroid.fdroid.data.Repo;
 import org.fdroid.fdroid.data.RepoProvider;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
 
 import androidx.documentfile.provider.DocumentFile;
 
@@ -164,9 +166,11 @@ public class TreeUriScannerIntentService extends IntentService {
      * the JAR signature and read the fingerprint of the signing certificate.
      * The fingerprint is then used to find whether this local repo is a mirror
      * of an existing repo, or a totally new repo.  In order to verify the
-     * signatures in the JAR, the whole file needs to be read in first.
+     * signatures in the JAR, the whole file needs to be read in first.  That
+     * is done while the file is copied, unless the JAR is laid out so that it
+     * can only be verified by {@link JarFile}, which then reads the copy.
      *
-     * @see JarInputStream#JarInputStream(InputStream, boolean)
+     * @see IndexUpdater#getSigningCertFromJarStream(InputStream, String)
      */
     private void registerRepo(DocumentFile index) {
         InputStream inputStream = null;
@@ -186,14 +190,36 @@ public class TreeUriScannerIntentService extends IntentService {
             return;
         }
         File destFile = File.createTempFile("dl-", IndexV1Updater.SIGNED_FILE_NAME, context.getCacheDir());
-        FileUtils.copyInputStreamToFile(inputStream, destFile);
-        JarFile jarFile = new JarFile(destFile, true);
-        JarEntry indexEntry = (JarEntry) jarFile.getEntry(IndexV1Updater.DATA_FILE_NAME);
-        IOUtils.readLines(jarFile.getInputStream(indexEntry));
-        Certificate certificate = IndexUpdater.getSigningCertFromJar(indexEntry);
+        Certificate certificate;
+        try {
+            OutputStream outputStream = new FileOutputStream(destFile);
+            try {
+                certificate = IndexUpdater.getSigningCertFromJarStream(
+                        new TeeInputStream(inputStream, outputStream), IndexV1Updater.DATA_FILE_NAME);
+                if (certificate == null) {
+                    IOUtils.copy(inputStream, outputStream);
+                }
+            } finally {
+                outputStream.close();
+            }
+            if (certificate == null) {
+                JarFile jarFile = new JarFile(destFile, true);
+                try {
+                    JarEntry indexEntry = (JarEntry) jarFile.getEntry(IndexV1Updater.DATA_FILE_NAME);
+                    if (indexEntry == null) {
+                        throw new IndexUpdater.SigningException("No " + IndexV1Updater.DATA_FILE_NAME + " found");
+                    }
+                    IOUtils.copy(jarFile.getInputStream(indexEntry), NullOutputStream.NULL_OUTPUT_STREAM);
+                    certificate = IndexUpdater.getSigningCertFromJar(indexEntry);
+                } finally {
+                    jarFile.close();
+                }
+            }
+        } finally {
+            destFile.delete();
+        }
         String fingerprint = Utils.calcFingerprint(certificate);
         Log.i(TAG, "Got fingerprint: " + fingerprint);
-        destFile.delete();
 
         Log.i(TAG, "Found a valid, signed index-v1.json");
         for (Repo repo : RepoProvider.Helper.all(context)) {
@@ -0,0 +1,111 @@
+package org.fdroid.fdroid;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.fdroid.fdroid.data.Repo;
+
+import java.io.File;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Keeps the last {@code index-v1.jar} of each repo which was verified and processed, so
+ * that rebuilding the database does not need to download all of the indexes again.
+ * {@link org.fdroid.fdroid.data.DBHelper#resetTransient(Context)} clears the etags of all
+ * repos, which happens when the system locale or Android version changes and with many
+ * database migrations.  {@link IndexV1Updater} then processes the snapshot first, and only
+ * downloads the index if the repo has moved on since.
+ * <p>
+ * A snapshot is only used for the repo it was saved for, i.e. the same address and signing
+ * certificate, and it is verified again each time it is processed, just like a download.
+ */
+public final class IndexSnapshot {
+    private static final String TAG = "IndexSnapshot";
+
+    /**
+     * Not starting with "index-" or "dl-", since {@link org.fdroid.fdroid.work.CleanCacheWorker}
+     * deletes those after an hour.
+     */
+    private static final String DIR = "repo-snapshots";
+    private static final String SHARED_PREFS = "index-snapshots";
+    private static final String KEY_ADDRESS = "address-";
+    private static final String KEY_SIGNING_CERT = "signingCert-";
+    private static final String KEY_ETAG = "etag-";
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Moves {@code file}, which has just been processed for {@code repo}, to be its snapshot.
+     */
+    static synchronized void save(Context context, Repo repo, File file, String etag) {
+        // a swap repo is gone once the other device is
+        if (repo.isSwap || TextUtils.isEmpty(repo.signingCertificate)) {
+            return;
+        }
+        File snapshot = getSnapshotFile(context, repo.getId());
+        File dir = snapshot.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+            return;
+        }
+        if (!file.renameTo(snapshot)) {
+            Log.w(TAG, "Could not keep " + file + " as " + snapshot);
+            delete(context, repo.getId());
+            return;
+        }
+        getSharedPreferences(context).edit()
+                .putString(KEY_ADDRESS + repo.getId(), repo.address)
+                .putString(KEY_SIGNING_CERT + repo.getId(), repo.signingCertificate)
+                .putString(KEY_ETAG + repo.getId(), etag)
+                .apply();
+    }
+
+    /**
+     * @return The snapshot of {@code repo}, or {@code null} if there is none which is
+     * known to come from this very repo.
+     */
+    @Nullable
+    static synchronized File getFile(Context context, Repo repo) {
+        SharedPreferences prefs = getSharedPreferences(context);
+        File snapshot = getSnapshotFile(context, repo.getId());
+        if (!snapshot.isFile()
+                || TextUtils.isEmpty(repo.signingCertificate)
+                || !TextUtils.equals(repo.address, prefs.getString(KEY_ADDRESS + repo.getId(), null))
+                || !TextUtils.equals(repo.signingCertificate, prefs.getString(KEY_SIGNING_CERT + repo.getId(), null))) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    @Nullable
+    static synchronized String getEtag(Context context, Repo repo) {
+        return getSharedPreferences(context).getString(KEY_ETAG + repo.getId(), null);
+    }
+
+    /**
+     * Also called when the repo itself is removed, so its snapshot does not linger.
+     */
+    public static synchronized void delete(Context context, long repoId) {
+        File snapshot = getSnapshotFile(context, repoId);
+        if (snapshot.exists() && !snapshot.delete()) {
+            Log.w(TAG, "Could not delete " + snapshot);
+        }
+        getSharedPreferences(context).edit()
+                .remove(KEY_ADDRESS + repoId)
+                .remove(KEY_SIGNING_CERT + repoId)
+                .remove(KEY_ETAG + repoId)
+                .apply();
+    }
+
+    private static File getSnapshotFile(Context context, long repoId) {
+        return new File(new File(context.getCacheDir(), DIR), repoId + "-" + IndexV1Updater.SIGNED_FILE_NAME);
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return context.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+    }
+}
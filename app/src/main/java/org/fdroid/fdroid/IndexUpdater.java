@@ -40,14 +40,13 @@ import org.fdroid.fdroid.data.RepoPersister;
 import org.fdroid.fdroid.data.RepoProvider;
 import org.fdroid.fdroid.data.RepoPushRequest;
 import org.fdroid.fdroid.data.RepoXMLHandler;
+import org.fdroid.fdroid.data.RepoXMLPullParser;
 import org.fdroid.fdroid.data.Schema.RepoTable;
 import org.fdroid.fdroid.installer.InstallManagerService;
 import org.fdroid.fdroid.installer.InstallerService;
 import org.fdroid.fdroid.net.Downloader;
 import org.fdroid.fdroid.net.DownloaderFactory;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
+import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
 import java.io.IOException;
@@ -61,12 +60,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.util.jar.JarInputStream;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 // TODO move to org.fdroid.fdroid.updater
 // TODO reduce visibility of methods once in .updater package (.e.g tests need it public now)
@@ -132,7 +129,7 @@ public class IndexUpdater {
             downloader = DownloaderFactory.create(context, indexUrl);
             downloader.setCacheTag(repo.lastetag);
             downloader.setListener(downloadListener);
-            downloader.download();
+            download(downloader);
 
         } catch (IOException e) {
             if (downloader != null && downloader.outputFile != null) {
@@ -149,6 +146,21 @@ public class IndexUpdater {
         return downloader;
     }
 
+    /**
+     * Runs {@link Downloader#download()}, recording it in {@link UpdateTimings}.
+     */
+    static void download(Downloader downloader) throws IOException, InterruptedException {
+        UpdateTimings.begin(UpdateTimings.Phase.DOWNLOAD);
+        try {
+            downloader.download();
+        } finally {
+            UpdateTimings.end();
+        }
+        if (downloader.hasChanged() && downloader.outputFile != null) {
+            UpdateTimings.addBytes(downloader.outputFile.length());
+        }
+    }
+
     /**
      * All repos are represented by a signed jar file, {@code index.jar}, which contains
      * a single file, {@code index.xml}.  This takes the {@code index.jar}, verifies the
@@ -213,13 +225,13 @@ public class IndexUpdater {
                     processIndexListener, (int) indexEntry.getSize());
 
             // Process the index...
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            final SAXParser parser = factory.newSAXParser();
-            final XMLReader reader = parser.getXMLReader();
-            final RepoXMLHandler repoXMLHandler = new RepoXMLHandler(repo, createIndexReceiver());
-            reader.setContentHandler(repoXMLHandler);
-            reader.parse(new InputSource(indexInputStream));
+            final RepoXMLPullParser parser = new RepoXMLPullParser(repo, createIndexReceiver());
+            UpdateTimings.begin(UpdateTimings.Phase.PARSE);
+            try {
+                parser.parse(indexInputStream);
+            } finally {
+                UpdateTimings.end();
+            }
 
             long timestamp = repoDetailsToSave.getAsLong(RepoTable.Cols.TIMESTAMP);
             if (timestamp < repo.timestamp) {
@@ -227,13 +239,17 @@ public class IndexUpdater {
                         + timestamp + " < " + repo.timestamp);
             }
 
-            signingCertFromJar = getSigningCertFromJar(indexEntry);
-
             // JarEntry can only read certificates after the file represented by that JarEntry
             // has been read completely, so verification cannot run until now...
-            assertSigningCertFromXmlCorrect();
+            UpdateTimings.begin(UpdateTimings.Phase.VERIFY);
+            try {
+                signingCertFromJar = getSigningCertFromJar(indexEntry);
+                assertSigningCertFromXmlCorrect();
+            } finally {
+                UpdateTimings.end();
+            }
             commitToDb();
-        } catch (SAXException | ParserConfigurationException | IOException e) {
+        } catch (XmlPullParserException | IllegalArgumentException | IOException e) {
             throw new UpdateException(repo, "Error parsing index", e);
         } finally {
             Utils.closeQuietly(indexInputStream);
@@ -380,6 +396,43 @@ public class IndexUpdater {
         return (X509Certificate) certs.get(0);
     }
 
+    /**
+     * Gets the signing certificate of {@code entryName} while the JAR streams past, rather
+     * than writing it to a file for {@link JarFile} and then reading that back in.  The
+     * entry is digested as it is read, so it is never decompressed more than once.  This
+     * only works when the signature files come before the entry in the JAR, which is how
+     * {@code jarsigner} and {@code apksigner} write them.  For any other layout, or if
+     * there is no such entry, this returns {@code null} and the caller needs to fall back
+     * to {@link JarFile}.
+     *
+     * @see #getSigningCertFromJar(JarEntry)
+     */
+    @Nullable
+    public static X509Certificate getSigningCertFromJarStream(InputStream inputStream, String entryName)
+            throws IOException, SigningException {
+        JarInputStream jarInputStream = new JarInputStream(inputStream, true);
+        if (jarInputStream.getManifest() == null) {
+            return null;
+        }
+        byte[] buffer = new byte[8192];
+        JarEntry jarEntry;
+        while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
+            if (!entryName.equals(jarEntry.getName())) {
+                continue;
+            }
+            // the digest is only checked, and the signers only set, once the entry is read to the end
+            int read;
+            do {
+                read = jarInputStream.read(buffer);
+            } while (read != -1);
+            if (jarEntry.getCodeSigners() == null) {
+                return null;
+            }
+            return getSigningCertFromJar(jarEntry);
+        }
+        return null;
+    }
+
     /**
      * A new repo can be added with or without the fingerprint of the signing
      * certificate.  If no fingerprint is supplied, then do a pure TOFU and just
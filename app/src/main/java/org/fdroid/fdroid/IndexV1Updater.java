@@ -30,7 +30,6 @@ import android.util.Log;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -115,23 +114,46 @@ public class IndexV1Updater extends IndexUpdater {
     @Override
     public boolean update() throws IndexUpdater.UpdateException {
 
-        if (repo.isSwap) {
-            // swap repos do not support index-v1
-            return false;
+        File checkpointFile = UpdateCheckpoint.getFile(context, repo.getId());
+        if (checkpointFile != null) {
+            Utils.debugLog(TAG, "Resuming the interrupted update of " + repo.address);
+            hasChanged = true;
+            try {
+                processDownloadedIndex(checkpointFile, UpdateCheckpoint.getEtag(context, repo.getId()));
+            } catch (IOException e) {
+                throw new IndexUpdater.UpdateException(repo, "Error getting F-Droid index file", e);
+            }
+            return true;
+        }
+
+        // the database was reset, so rebuild it without waiting on the network if possible
+        boolean loadedSnapshot = false;
+        File snapshot = repo.lastetag == null ? IndexSnapshot.getFile(context, repo) : null;
+        if (snapshot != null) {
+            Utils.debugLog(TAG, "Rebuilding " + repo.address + " from its index snapshot");
+            try {
+                processIndexFile(snapshot, IndexSnapshot.getEtag(context, repo));
+                loadedSnapshot = true;
+            } catch (IOException | IndexUpdater.UpdateException e) {
+                Log.w(TAG, "Discarding the index snapshot of " + repo.address, e);
+                IndexSnapshot.delete(context, repo.getId());
+            }
         }
+
         Downloader downloader = null;
         try {
             // read file name from file
             downloader = DownloaderFactory.create(context, indexUrl);
             downloader.setCacheTag(repo.lastetag);
             downloader.setListener(downloadListener);
-            downloader.download();
+            download(downloader);
             if (downloader.isNotFound()) {
                 return false;
             }
             hasChanged = downloader.hasChanged();
 
             if (!hasChanged) {
+                hasChanged = loadedSnapshot;
                 return true;
             }
 
@@ -154,13 +176,14 @@ public class IndexV1Updater extends IndexUpdater {
                     downloader.setCacheTag(repo.lastetag);
                     downloader.setListener(downloadListener);
                     downloader.setTimeout(FDroidApp.getTimeout());
-                    downloader.download();
+                    download(downloader);
                     if (downloader.isNotFound()) {
                         return false;
                     }
                     hasChanged = downloader.hasChanged();
 
                     if (!hasChanged) {
+                        hasChanged = loadedSnapshot;
                         return true;
                     }
 
@@ -192,14 +215,32 @@ public class IndexV1Updater extends IndexUpdater {
         return true;
     }
 
+    /**
+     * The downloaded file is kept until it has been processed, one way or the other, so that
+     * an update which gets killed part way through can pick up from the {@link UpdateCheckpoint}.
+     * Once processed, it becomes the {@link IndexSnapshot} of the repo.
+     */
     private void processDownloadedIndex(File outputFile, String cacheTag)
             throws IOException, IndexUpdater.UpdateException {
-        JarFile jarFile = new JarFile(outputFile, true);
-        JarEntry indexEntry = (JarEntry) jarFile.getEntry(DATA_FILE_NAME);
-        InputStream indexInputStream = new ProgressBufferedInputStream(jarFile.getInputStream(indexEntry),
-                processIndexListener, (int) indexEntry.getSize());
-        processIndexV1(indexInputStream, indexEntry, cacheTag);
-        jarFile.close();
+        File file = UpdateCheckpoint.start(context, repo.getId(), outputFile, cacheTag);
+        try {
+            processIndexFile(file, cacheTag);
+            IndexSnapshot.save(context, repo, file, cacheTag);
+        } finally {
+            UpdateCheckpoint.clear(context);
+        }
+    }
+
+    private void processIndexFile(File file, String cacheTag) throws IOException, IndexUpdater.UpdateException {
+        JarFile jarFile = new JarFile(file, true);
+        try {
+            JarEntry indexEntry = (JarEntry) jarFile.getEntry(DATA_FILE_NAME);
+            InputStream indexInputStream = new ProgressBufferedInputStream(jarFile.getInputStream(indexEntry),
+                    processIndexListener, (int) indexEntry.getSize());
+            processIndexV1(indexInputStream, indexEntry, cacheTag);
+        } finally {
+            jarFile.close();
+        }
     }
 
     /**
@@ -238,36 +279,11 @@ public class IndexV1Updater extends IndexUpdater {
             throws IOException, UpdateException {
         Utils.Profiler profiler = new Utils.Profiler(TAG);
         profiler.log("Starting to process index-v1.json");
-        ObjectMapper mapper = getObjectMapperInstance(repo.getId());
-        JsonFactory f = mapper.getFactory();
-        JsonParser parser = f.createParser(indexInputStream);
-        HashMap<String, Object> repoMap = null;
-        App[] apps = null;
-        Map<String, String[]> requests = null;
-        Map<String, List<Apk>> packages = null;
-
-        parser.nextToken(); // go into the main object block
-        while (true) {
-            String fieldName = parser.nextFieldName();
-            if (fieldName == null) {
-                break;
-            }
-            switch (fieldName) {
-                case "repo":
-                    repoMap = parseRepo(mapper, parser);
-                    break;
-                case "requests":
-                    requests = parseRequests(mapper, parser);
-                    break;
-                case "apps":
-                    apps = parseApps(mapper, parser);
-                    break;
-                case "packages":
-                    packages = parsePackages(mapper, parser);
-                    break;
-            }
-        }
-        parser.close(); // ensure resources get cleaned up timely and properly
+        ParsedIndexV1 index = parseIndexV1(indexInputStream);
+        HashMap<String, Object> repoMap = index.repo;
+        App[] apps = index.apps;
+        Map<String, String[]> requests = index.requests;
+        Map<String, List<Apk>> packages = index.packages;
         profiler.log("Finished processing index-v1.json. Now verifying certificate...");
 
         if (repoMap == null) {
@@ -276,14 +292,14 @@ public class IndexV1Updater extends IndexUpdater {
 
         long timestamp = (Long) repoMap.get("timestamp") / 1000;
 
-        if (repo.timestamp > timestamp) {
-            throw new IndexUpdater.UpdateException(repo, "index.jar is older that current index! "
-                    + timestamp + " < " + repo.timestamp);
+        UpdateTimings.begin(UpdateTimings.Phase.VERIFY);
+        try {
+            X509Certificate certificate = getSigningCertFromJar(indexEntry);
+            verifySigningCertificate(certificate);
+        } finally {
+            UpdateTimings.end();
         }
 
-        X509Certificate certificate = getSigningCertFromJar(indexEntry);
-        verifySigningCertificate(certificate);
-
         profiler.log("Certificate verified. Now saving to database...");
 
         // timestamp is absolutely required
@@ -310,6 +326,7 @@ public class IndexV1Updater extends IndexUpdater {
         }
 
         RepoPersister repoPersister = new RepoPersister(context, repo);
+        repoPersister.resume(UpdateCheckpoint.getAppsSaved(context, repo.getId()));
         if (apps != null && apps.length > 0) {
             int appCount = 0;
             for (App app : apps) {
@@ -377,6 +394,73 @@ public class IndexV1Updater extends IndexUpdater {
         }
     }
 
+    /**
+     * The parts of {@code index-v1.json} which are used, see {@link #parseIndexV1(InputStream)}.
+     */
+    public static final class ParsedIndexV1 {
+        public HashMap<String, Object> repo;
+        public Map<String, String[]> requests;
+        public App[] apps;
+        public Map<String, List<Apk>> packages;
+    }
+
+    /**
+     * Parses {@code index-v1.json} without saving anything.  This is public so that
+     * {@code IndexParsingBenchmark} measures exactly what an update does.
+     */
+    public ParsedIndexV1 parseIndexV1(InputStream indexInputStream) throws IOException, UpdateException {
+        ObjectMapper mapper = getObjectMapperInstance(repo.getId());
+        JsonParser parser = mapper.getFactory().createParser(indexInputStream);
+        ParsedIndexV1 index = new ParsedIndexV1();
+
+        UpdateTimings.begin(UpdateTimings.Phase.PARSE);
+        try {
+            parser.nextToken(); // go into the main object block
+            while (true) {
+                String fieldName = parser.nextFieldName();
+                if (fieldName == null) {
+                    break;
+                }
+                switch (fieldName) {
+                    case "repo":
+                        index.repo = parseRepo(mapper, parser);
+                        // "repo" comes first, so a stale index is rejected before the bulk of it is parsed
+                        checkTimestamp(index.repo);
+                        break;
+                    case "requests":
+                        index.requests = parseRequests(mapper, parser);
+                        break;
+                    case "apps":
+                        index.apps = parseApps(mapper, parser);
+                        break;
+                    case "packages":
+                        index.packages = parsePackages(mapper, parser);
+                        break;
+                }
+            }
+            parser.close(); // ensure resources get cleaned up timely and properly
+        } finally {
+            UpdateTimings.end();
+        }
+        return index;
+    }
+
+    /**
+     * Rejects an index which is older than the one already in the database, e.g. one served
+     * by an out of date mirror, or one an attacker is trying to roll the repo back to.
+     */
+    private void checkTimestamp(Map<String, Object> repoMap) throws UpdateException {
+        Object value = repoMap.get("timestamp");
+        if (!(value instanceof Long)) {
+            throw new IndexUpdater.UpdateException(repo, "index-v1.json has no valid timestamp: " + value);
+        }
+        long timestamp = (Long) value / 1000;
+        if (repo.timestamp > timestamp) {
+            throw new IndexUpdater.UpdateException(repo, "index.jar is older that current index! "
+                    + timestamp + " < " + repo.timestamp);
+        }
+    }
+
     private int getIntRepoValue(Map<String, Object> repoMap, String key) {
         Object value = repoMap.get(key);
         if (value != null && value instanceof Integer) {
@@ -0,0 +1,154 @@
+package org.fdroid.fdroid;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.File;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Lets a repo update which was killed part way through carry on where it left off, rather
+ * than start again from the download.  That happens a lot on low memory devices while a big
+ * {@code index-v1.json} is being processed, to the point where some never finish an update.
+ * Once {@link IndexV1Updater} has downloaded an index, the file is kept and recorded here,
+ * along with how many of its apps {@link org.fdroid.fdroid.data.RepoPersister} has flushed
+ * to the temp tables so far.  The next update of that repo processes the same file again,
+ * skipping the apps which are already in the temp tables.
+ * <p>
+ * The temp tables are shared by all repos, so staging any other repo discards the
+ * checkpoint.  Whatever else ends the processing of the index, short of the process
+ * dying, clears it too.
+ */
+public final class UpdateCheckpoint {
+    private static final String TAG = "UpdateCheckpoint";
+
+    /**
+     * An older checkpoint is not resumed, since the repo has most likely moved on by then.
+     */
+    static final long MAX_AGE_MILLIS = DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * Like {@link IndexSnapshot}, the file is moved out of the way of
+     * {@link org.fdroid.fdroid.work.CleanCacheWorker}, which deletes stray downloads
+     * after an hour, long before {@link #MAX_AGE_MILLIS} is up.
+     */
+    private static final String DIR = "update-checkpoint";
+
+    private static final String SHARED_PREFS = "update-checkpoint";
+    private static final String KEY_REPO_ID = "repoId";
+    private static final String KEY_FILE = "file";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_CREATED = "created";
+    private static final String KEY_APPS_SAVED = "appsSaved";
+
+    private UpdateCheckpoint() {
+    }
+
+    /**
+     * Records that {@code file} is about to be processed for {@code repoId}, unless it is the
+     * file of the checkpoint which is being resumed.
+     *
+     * @return The file to process, which is where {@code file} has been moved to be kept.
+     */
+    static synchronized File start(Context context, long repoId, File file, String etag) {
+        if (file.equals(getFile(context, repoId))) {
+            return file;
+        }
+        clear(context);
+        File kept = new File(new File(context.getCacheDir(), DIR), repoId + "-" + IndexV1Updater.SIGNED_FILE_NAME);
+        File dir = kept.getParentFile();
+        if ((dir.isDirectory() || dir.mkdirs()) && file.renameTo(kept)) {
+            file = kept;
+        } else {
+            Log.w(TAG, "Could not keep " + file + " as " + kept);
+        }
+        getSharedPreferences(context).edit()
+                .putLong(KEY_REPO_ID, repoId)
+                .putString(KEY_FILE, file.getAbsolutePath())
+                .putString(KEY_ETAG, etag)
+                .putLong(KEY_CREATED, System.currentTimeMillis())
+                .putInt(KEY_APPS_SAVED, 0)
+                .commit();
+        return file;
+    }
+
+    /**
+     * @return The downloaded index of an unfinished update of {@code repoId}, or {@code null}
+     * if there is none which can still be resumed.
+     */
+    @Nullable
+    static synchronized File getFile(Context context, long repoId) {
+        SharedPreferences prefs = getSharedPreferences(context);
+        if (prefs.getLong(KEY_REPO_ID, -1) != repoId) {
+            return null;
+        }
+        String path = prefs.getString(KEY_FILE, null);
+        long age = System.currentTimeMillis() - prefs.getLong(KEY_CREATED, 0);
+        if (path == null || !new File(path).isFile() || age < 0 || age > MAX_AGE_MILLIS) {
+            Log.i(TAG, "Discarding the checkpoint of repo " + repoId);
+            clear(context);
+            return null;
+        }
+        return new File(path);
+    }
+
+    @Nullable
+    static synchronized String getEtag(Context context, long repoId) {
+        SharedPreferences prefs = getSharedPreferences(context);
+        return prefs.getLong(KEY_REPO_ID, -1) == repoId ? prefs.getString(KEY_ETAG, null) : null;
+    }
+
+    /**
+     * @return How many apps of the checkpointed index of {@code repoId} are already in the
+     * temp tables.
+     */
+    public static synchronized int getAppsSaved(Context context, long repoId) {
+        SharedPreferences prefs = getSharedPreferences(context);
+        return prefs.getLong(KEY_REPO_ID, -1) == repoId ? prefs.getInt(KEY_APPS_SAVED, 0) : 0;
+    }
+
+    /**
+     * Called each time another batch of apps of {@code repoId} has been written to the temp
+     * tables.  This commits rather than applies the change, as it is only any use if it is
+     * on disk before the process gets killed.
+     */
+    public static synchronized void onAppsSaved(Context context, long repoId, int appsSaved) {
+        SharedPreferences prefs = getSharedPreferences(context);
+        if (prefs.getLong(KEY_REPO_ID, -1) == repoId) {
+            prefs.edit().putInt(KEY_APPS_SAVED, appsSaved).commit();
+        }
+    }
+
+    /**
+     * Called when the temp tables have just been emptied to stage {@code repoId}, which
+     * throws away whatever progress was recorded.
+     */
+    public static synchronized void onTempTablesInit(Context context, long repoId) {
+        SharedPreferences prefs = getSharedPreferences(context);
+        if (prefs.getLong(KEY_REPO_ID, -1) == repoId) {
+            prefs.edit().putInt(KEY_APPS_SAVED, 0).commit();
+        } else if (prefs.contains(KEY_REPO_ID)) {
+            clear(context);
+        }
+    }
+
+    /**
+     * Deletes the checkpoint along with the downloaded index it refers to, unless that has
+     * been kept as the {@link IndexSnapshot} already.
+     */
+    static synchronized void clear(Context context) {
+        SharedPreferences prefs = getSharedPreferences(context);
+        String path = prefs.getString(KEY_FILE, null);
+        if (path != null && new File(path).exists() && !new File(path).delete()) {
+            Utils.debugLog(TAG, "Could not delete " + path);
+        }
+        prefs.edit().clear().commit();
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return context.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+    }
+}
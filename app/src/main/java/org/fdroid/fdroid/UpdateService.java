@@ -458,6 +458,7 @@ public class UpdateService extends JobIntentService {
             LocalBroadcastManager.getInstance(this).registerReceiver(updateStatusReceiver,
                     new IntentFilter(LOCAL_ACTION_STATUS));
 
+            UpdateTimings.startRun(manualUpdate);
             int unchangedRepos = 0;
             int updatedRepos = 0;
             int errorRepos = 0;
@@ -478,9 +479,12 @@ public class UpdateService extends JobIntentService {
 
                 sendStatus(this, STATUS_INFO, getString(R.string.status_connecting_to_repo, repo.address));
 
+                UpdateTimings.startRepo(repo.address);
+                String index = IndexV1Updater.SIGNED_FILE_NAME;
                 try {
                     IndexUpdater updater = new IndexV1Updater(this, repo);
                     if (Preferences.get().isForceOldIndexEnabled() || !updater.update()) {
+                        index = IndexUpdater.SIGNED_FILE_NAME;
                         updater = new IndexUpdater(getBaseContext(), repo);
                         updater.update();
                     }
@@ -488,10 +492,13 @@ public class UpdateService extends JobIntentService {
                     if (updater.hasChanged()) {
                         updatedRepos++;
                         changes = true;
+                        UpdateTimings.finishRepo(index, "changed");
                     } else {
                         unchangedRepos++;
+                        UpdateTimings.finishRepo(index, "unchanged");
                     }
                 } catch (IndexUpdater.UpdateException e) {
+                    UpdateTimings.finishRepo(index, "error");
                     errorRepos++;
                     Throwable cause = e.getCause();
                     if (cause == null) {
@@ -512,10 +519,15 @@ public class UpdateService extends JobIntentService {
             if (!changes) {
                 Utils.debugLog(TAG, "Not checking app details or compatibility, because repos were up to date.");
             } else {
-                notifyContentProviders();
+                UpdateTimings.begin(UpdateTimings.Phase.NOTIFY);
+                try {
+                    notifyContentProviders();
 
-                if (fdroidPrefs.isUpdateNotificationEnabled() && !fdroidPrefs.isAutoDownloadEnabled()) {
-                    performUpdateNotification();
+                    if (fdroidPrefs.isUpdateNotificationEnabled() && !fdroidPrefs.isAutoDownloadEnabled()) {
+                        performUpdateNotification();
+                    }
+                } finally {
+                    UpdateTimings.end();
                 }
             }
 
@@ -538,6 +550,7 @@ public class UpdateService extends JobIntentService {
             Log.e(TAG, "Exception during update processing", e);
             sendStatus(this, STATUS_ERROR_GLOBAL, e.getMessage());
         }
+        UpdateTimings.finishRun(this);
 
         long time = System.currentTimeMillis() - startTime;
         Log.i(TAG, "Updating repo(s) complete, took " + time / 1000 + " seconds to complete.");
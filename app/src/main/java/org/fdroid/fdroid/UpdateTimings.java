@@ -0,0 +1,288 @@
+package org.fdroid.fdroid;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records how long each phase of a repo update takes, so that we can see where the time
+ * goes on slow devices in the field.  {@link UpdateService} starts a record for each run
+ * and each repo in it, and the code doing the work marks the phases with
+ * {@link #begin(Phase)} and {@link #end()}.  The finished records of the last
+ * {@link #MAX_HISTORY} runs are kept, and can be shared from the settings.
+ * <p>
+ * Phases nest, and each one only counts the time not spent in an inner phase, e.g. the
+ * {@link Phase#PARSE} of {@code index.xml} does not include the {@link Phase#TEMP_INSERT}
+ * that happens as each app is parsed.  The records are per-thread, so anything outside of
+ * the update, like downloading an APK with the same {@link org.fdroid.fdroid.net.Downloader},
+ * is not recorded.
+ */
+public final class UpdateTimings {
+    private static final String TAG = "UpdateTimings";
+
+    static final int MAX_HISTORY = 10;
+
+    private static final String SHARED_PREFS = "update-timings";
+    private static final String KEY_HISTORY = "history";
+
+    private static final ThreadLocal<Run> CURRENT = new ThreadLocal<>();
+
+    public enum Phase {
+        HEAD("head"),
+        DOWNLOAD("download"),
+        VERIFY("verify"),
+        PARSE("parse"),
+        COMPATIBILITY("compatibility"),
+        TEMP_INSERT("tempInsert"),
+        SUGGESTED("suggested"),
+        COMMIT("commit"),
+        NOTIFY("notify");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private UpdateTimings() {
+    }
+
+    private static class Timings {
+        final long[] durations = new long[Phase.values().length];
+        final Deque<Phase> phases = new ArrayDeque<>();
+        long phaseStart;
+
+        void begin(Phase phase, long now) {
+            pause(now);
+            phases.push(phase);
+            phaseStart = now;
+        }
+
+        void end(long now) {
+            pause(now);
+            phases.poll();
+            phaseStart = now;
+        }
+
+        private void pause(long now) {
+            Phase current = phases.peek();
+            if (current != null) {
+                durations[current.ordinal()] += now - phaseStart;
+            }
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            for (Phase phase : Phase.values()) {
+                if (durations[phase.ordinal()] > 0) {
+                    json.put(phase.key, durations[phase.ordinal()]);
+                }
+            }
+            return json;
+        }
+    }
+
+    private static final class RepoTimings extends Timings {
+        final String address;
+        final long start = SystemClock.elapsedRealtime();
+        String index;
+        String result;
+        long bytes;
+        long duration;
+
+        RepoTimings(String address) {
+            this.address = address;
+        }
+    }
+
+    private static final class Run extends Timings {
+        final long startTime = System.currentTimeMillis();
+        final long start = SystemClock.elapsedRealtime();
+        final boolean manual;
+        final List<RepoTimings> repos = new ArrayList<>();
+        RepoTimings currentRepo;
+
+        Run(boolean manual) {
+            this.manual = manual;
+        }
+
+        Timings current() {
+            return currentRepo != null ? currentRepo : this;
+        }
+    }
+
+    /**
+     * Start recording a whole run of {@link UpdateService} on this thread.
+     */
+    static void startRun(boolean manual) {
+        CURRENT.set(new Run(manual));
+    }
+
+    static void startRepo(String address) {
+        Run run = CURRENT.get();
+        if (run != null) {
+            run.currentRepo = new RepoTimings(address);
+            run.repos.add(run.currentRepo);
+        }
+    }
+
+    /**
+     * @param index  which kind of index was used, e.g. {@link IndexV1Updater#SIGNED_FILE_NAME}
+     * @param result a short word describing how it ended, e.g. "changed" or "error"
+     */
+    static void finishRepo(String index, String result) {
+        Run run = CURRENT.get();
+        if (run != null && run.currentRepo != null) {
+            run.currentRepo.index = index;
+            run.currentRepo.result = result;
+            run.currentRepo.duration = SystemClock.elapsedRealtime() - run.currentRepo.start;
+            run.currentRepo = null;
+        }
+    }
+
+    /**
+     * Counts {@code bytes} as downloaded by the repo currently being updated.
+     */
+    public static void addBytes(long bytes) {
+        Run run = CURRENT.get();
+        if (run != null && run.currentRepo != null) {
+            run.currentRepo.bytes += bytes;
+        }
+    }
+
+    public static void begin(Phase phase) {
+        Run run = CURRENT.get();
+        if (run != null) {
+            run.current().begin(phase, SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * Ends the most recently started phase.  This must always be called after
+     * {@link #begin(Phase)}, so it is best done in a {@code finally} block.
+     */
+    public static void end() {
+        Run run = CURRENT.get();
+        if (run != null) {
+            run.current().end(SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * Stops recording on this thread, and adds the run to the persisted history.
+     */
+    static void finishRun(Context context) {
+        Run run = CURRENT.get();
+        CURRENT.remove();
+        if (run == null) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject();
+            json.put("start", run.startTime);
+            json.put("duration", SystemClock.elapsedRealtime() - run.start);
+            json.put("manual", run.manual);
+            json.put("phases", run.toJson());
+            JSONArray repos = new JSONArray();
+            for (RepoTimings repo : run.repos) {
+                JSONObject repoJson = new JSONObject();
+                repoJson.put("address", repo.address);
+                repoJson.put("index", repo.index);
+                repoJson.put("result", repo.result);
+                repoJson.put("bytes", repo.bytes);
+                repoJson.put("duration", repo.duration);
+                repoJson.put("phases", repo.toJson());
+                repos.put(repoJson);
+            }
+            json.put("repos", repos);
+
+            synchronized (UpdateTimings.class) {
+                JSONArray history = getHistory(context);
+                JSONArray trimmed = new JSONArray();
+                for (int i = Math.max(0, history.length() - MAX_HISTORY + 1); i < history.length(); i++) {
+                    trimmed.put(history.get(i));
+                }
+                trimmed.put(json);
+                getSharedPreferences(context).edit().putString(KEY_HISTORY, trimmed.toString()).apply();
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not save update timings", e);
+        }
+    }
+
+    /**
+     * The persisted runs, oldest first, as {@link JSONObject}s.
+     */
+    static synchronized JSONArray getHistory(Context context) {
+        String history = getSharedPreferences(context).getString(KEY_HISTORY, null);
+        if (history != null) {
+            try {
+                return new JSONArray(history);
+            } catch (JSONException e) {
+                Log.e(TAG, "Discarding unreadable update timings", e);
+            }
+        }
+        return new JSONArray();
+    }
+
+    /**
+     * A plain text report of the last {@link #MAX_HISTORY} runs, newest first, suitable for
+     * pasting into a bug report.  Each run gets a line with its totals, then a line for each
+     * repo with the phases which took any time at all, in milliseconds.
+     */
+    public static String getReport(Context context) {
+        JSONArray history = getHistory(context);
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (int i = history.length() - 1; i >= 0; i--) {
+                JSONObject run = history.getJSONObject(i);
+                sb.append(Utils.formatTime(new Date(run.getLong("start")), ""))
+                        .append(run.getBoolean("manual") ? " manual" : " scheduled")
+                        .append(' ').append(run.getLong("duration")).append("ms");
+                appendPhases(sb, run.getJSONObject("phases"));
+                sb.append('\n');
+
+                JSONArray repos = run.getJSONArray("repos");
+                for (int j = 0; j < repos.length(); j++) {
+                    JSONObject repo = repos.getJSONObject(j);
+                    sb.append("  ").append(repo.getString("address"))
+                            .append(' ').append(repo.optString("index", "-"))
+                            .append(' ').append(repo.optString("result", "-"))
+                            .append(' ').append(repo.getLong("duration")).append("ms")
+                            .append(String.format(Locale.ENGLISH, " %dkB", repo.getLong("bytes") / 1024));
+                    appendPhases(sb, repo.getJSONObject("phases"));
+                    sb.append('\n');
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not read update timings", e);
+        }
+        return sb.toString();
+    }
+
+    private static void appendPhases(StringBuilder sb, JSONObject phases) {
+        for (Phase phase : Phase.values()) {
+            long duration = phases.optLong(phase.key);
+            if (duration > 0) {
+                sb.append(' ').append(phase.key).append('=').append(duration);
+            }
+        }
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return context.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+    }
+}
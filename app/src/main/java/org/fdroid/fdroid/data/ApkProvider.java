@@ -548,7 +548,7 @@ public class ApkProvider extends FDroidProvider {
         queryBuilder.addSelection(query);
         queryBuilder.addOrderBy(sortOrder);
 
-        Cursor cursor = LoggingQuery.rawQuery(db(), queryBuilder.toString(), queryBuilder.getArgs());
+        Cursor cursor = LoggingQuery.rawQuery(db(), uri, queryBuilder.toString(), queryBuilder.getArgs());
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
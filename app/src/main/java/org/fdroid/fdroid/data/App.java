@@ -286,7 +286,7 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
                     description = cursor.getString(i);
                     break;
                 case Cols.WHATSNEW:
-                    whatsNew = cursor.getString(i);
+                    whatsNew = CompressedText.getString(cursor, i);
                     break;
                 case Cols.LICENSE:
                     license = cursor.getString(i);
@@ -373,19 +373,19 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
                     tvBanner = cursor.getString(i);
                     break;
                 case Cols.PHONE_SCREENSHOTS:
-                    phoneScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
+                    phoneScreenshots = Utils.parseCommaSeparatedString(CompressedText.getString(cursor, i));
                     break;
                 case Cols.SEVEN_INCH_SCREENSHOTS:
-                    sevenInchScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
+                    sevenInchScreenshots = Utils.parseCommaSeparatedString(CompressedText.getString(cursor, i));
                     break;
                 case Cols.TEN_INCH_SCREENSHOTS:
-                    tenInchScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
+                    tenInchScreenshots = Utils.parseCommaSeparatedString(CompressedText.getString(cursor, i));
                     break;
                 case Cols.TV_SCREENSHOTS:
-                    tvScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
+                    tvScreenshots = Utils.parseCommaSeparatedString(CompressedText.getString(cursor, i));
                     break;
                 case Cols.WEAR_SCREENSHOTS:
-                    wearScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
+                    wearScreenshots = Utils.parseCommaSeparatedString(CompressedText.getString(cursor, i));
                     break;
                 case Cols.IS_APK:
                     isApk = cursor.getInt(i) == 1;
@@ -1018,7 +1018,7 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
         values.put(Cols.ICON, iconFromApk);
         values.put(Cols.ICON_URL, iconUrl);
         values.put(Cols.DESCRIPTION, description);
-        values.put(Cols.WHATSNEW, whatsNew);
+        CompressedText.put(values, Cols.WHATSNEW, whatsNew);
         values.put(Cols.LICENSE, license);
         values.put(Cols.AUTHOR_NAME, authorName);
         values.put(Cols.AUTHOR_EMAIL, authorEmail);
@@ -1046,11 +1046,13 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
         values.put(Cols.FEATURE_GRAPHIC, featureGraphic);
         values.put(Cols.PROMO_GRAPHIC, promoGraphic);
         values.put(Cols.TV_BANNER, tvBanner);
-        values.put(Cols.PHONE_SCREENSHOTS, Utils.serializeCommaSeparatedString(phoneScreenshots));
-        values.put(Cols.SEVEN_INCH_SCREENSHOTS, Utils.serializeCommaSeparatedString(sevenInchScreenshots));
-        values.put(Cols.TEN_INCH_SCREENSHOTS, Utils.serializeCommaSeparatedString(tenInchScreenshots));
-        values.put(Cols.TV_SCREENSHOTS, Utils.serializeCommaSeparatedString(tvScreenshots));
-        values.put(Cols.WEAR_SCREENSHOTS, Utils.serializeCommaSeparatedString(wearScreenshots));
+        CompressedText.put(values, Cols.PHONE_SCREENSHOTS, Utils.serializeCommaSeparatedString(phoneScreenshots));
+        CompressedText.put(values, Cols.SEVEN_INCH_SCREENSHOTS,
+                Utils.serializeCommaSeparatedString(sevenInchScreenshots));
+        CompressedText.put(values, Cols.TEN_INCH_SCREENSHOTS,
+                Utils.serializeCommaSeparatedString(tenInchScreenshots));
+        CompressedText.put(values, Cols.TV_SCREENSHOTS, Utils.serializeCommaSeparatedString(tvScreenshots));
+        CompressedText.put(values, Cols.WEAR_SCREENSHOTS, Utils.serializeCommaSeparatedString(wearScreenshots));
         values.put(Cols.IS_COMPATIBLE, compatible ? 1 : 0);
         values.put(Cols.IS_APK, isApk ? 1 : 0);
         values.put(Cols.IS_LOCALIZED, isLocalized ? 1 : 0);
@@ -133,7 +133,7 @@ public class AppPrefsProvider extends FDroidProvider {
         query.addFields(projection);
         query.addOrderBy(sortOrder);
 
-        Cursor cursor = LoggingQuery.rawQuery(db(), query.toString(), query.getArgs());
+        Cursor cursor = LoggingQuery.rawQuery(db(), uri, query.toString(), query.getArgs());
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
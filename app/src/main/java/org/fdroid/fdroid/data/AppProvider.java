@@ -914,7 +914,7 @@ public class AppProvider extends FDroidProvider {
         query.addOrderBy(sortOrder);
         query.addLimit(limit);
 
-        Cursor cursor = LoggingQuery.rawQuery(db(), query.toString(), query.getArgs());
+        Cursor cursor = LoggingQuery.rawQuery(db(), uri, query.toString(), query.getArgs());
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -1054,6 +1054,14 @@ public class AppProvider extends FDroidProvider {
     }
 
     private void updatePreferredMetadata() {
+        updatePreferredMetadata(null);
+    }
+
+    /**
+     * @param packageIdsQuery A subquery selecting the {@link PackageTable.Cols#ROW_ID} of each
+     *                        package to update, or {@code null} to update every package.
+     */
+    void updatePreferredMetadata(@Nullable String packageIdsQuery) {
         Utils.debugLog(TAG, "Deciding on which metadata should take priority for each package.");
 
         final String app = getTableName();
@@ -1072,7 +1080,11 @@ public class AppProvider extends FDroidProvider {
                         " JOIN " + RepoTable.NAME + " AS repo ON (metadata." + Cols.REPO_ID + " = repo." + RepoTable.Cols._ID + ") " +
                         " WHERE metadata." + Cols.PACKAGE_ID + " = " + PackageTable.NAME + "." + PackageTable.Cols.ROW_ID +
                         " AND repo." + RepoTable.Cols.PRIORITY + " = (" + highestPriority + ")" +
-                        ");";
+                        ")";
+
+        if (packageIdsQuery != null) {
+            updateSql += " WHERE " + PackageTable.NAME + "." + PackageTable.Cols.ROW_ID + " IN (" + packageIdsQuery + ")";
+        }
 
         db().execSQL(updateSql);
     }
@@ -1081,7 +1093,7 @@ public class AppProvider extends FDroidProvider {
      * For each app, we want to set the isCompatible flag to 1 if any of the apks we know
      * about are compatible, and 0 otherwise.
      */
-    private void updateCompatibleFlags() {
+    void updateCompatibleFlags() {
         Utils.debugLog(TAG, "Calculating whether apps are compatible, based on whether any of their apks are compatible");
 
         final String apk = getApkTableName();
@@ -1106,7 +1118,7 @@ public class AppProvider extends FDroidProvider {
      *
      * @see #updateSuggestedFromLatest(String)
      */
-    private void updateSuggestedFromUpstream(@Nullable String packageName) {
+    void updateSuggestedFromUpstream(@Nullable String packageName) {
         Utils.debugLog(TAG, "Calculating suggested versions for all NON-INSTALLED apps which specify an upstream version code.");
 
         final String apk = getApkTableName();
@@ -1151,7 +1163,7 @@ public class AppProvider extends FDroidProvider {
                         " ( " + app + "." + Cols.IS_COMPATIBLE + " = 0 OR " + apk + "." + Cols.IS_COMPATIBLE + " = 1 ) ) " +
                         " WHERE " + Cols.SUGGESTED_VERSION_CODE + " > 0 " + restrictToApp;
 
-        LoggingQuery.execSQL(db(), updateSql, args);
+        LoggingQuery.execSQL(db(), getProviderName() + ".updateSuggestedFromUpstream", updateSql, args);
     }
 
     /**
@@ -1196,6 +1208,6 @@ public class AppProvider extends FDroidProvider {
                         " ( " + app + "." + Cols.IS_COMPATIBLE + " = 0 OR " + apk + "." + ApkTable.Cols.IS_COMPATIBLE + " = 1 ) ) " +
                         " WHERE " + restrictToApps;
 
-        LoggingQuery.execSQL(db(), updateSql, args);
+        LoggingQuery.execSQL(db(), getProviderName() + ".updateSuggestedFromLatest", updateSql, args);
     }
 }
@@ -214,7 +214,7 @@ public class CategoryProvider extends FDroidProvider {
             query.setOnlyCategoriesWithApps();
         }
 
-        Cursor cursor = LoggingQuery.rawQuery(db(), query.toString(), query.getArgs());
+        Cursor cursor = LoggingQuery.rawQuery(db(), uri, query.toString(), query.getArgs());
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -0,0 +1,133 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Stores long text from the index as deflated {@code BLOB}s, so it takes less space in the
+ * database and less copying when {@link TempAppProvider} commits a repo.  Text which does
+ * not get any smaller is stored as it is, so a column may hold either, and
+ * {@link #getString(Cursor, int)} reads both.
+ * <p>
+ * Only columns which are never used in a {@code WHERE} clause can be stored like this,
+ * since SQLite cannot look inside the compressed data.
+ */
+final class CompressedText {
+    private static final String TAG = "CompressedText";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Marks the format of the {@code BLOB}, in case it ever needs to change.  Data written
+     * with {@link #DICTIONARY} can only be read with exactly the same dictionary.
+     */
+    private static final byte FORMAT_DEFLATE = 1;
+
+    /**
+     * Text which is commonly found in changelogs and lists of screenshots, so that even the
+     * short ones compress.  The most common text goes at the end, as that is where deflate
+     * finds it cheapest.
+     */
+    private static final byte[] DICTIONARY = ("Improved Updated Removed Changed Fixed crash when "
+            + "support for the translations, Bug fixes and improvements\n* "
+            + "/wearScreenshots/ /tvScreenshots/ /tenInchScreenshots/ /sevenInchScreenshots/ "
+            + ".jpg,en-US/phoneScreenshots/.png,").getBytes(UTF_8);
+
+    /**
+     * Shorter text can't be made any smaller once the header is added.
+     */
+    private static final int MIN_LENGTH = 64;
+
+    private CompressedText() {
+    }
+
+    /**
+     * Puts {@code text} into {@code column}, deflated if that makes it any smaller.
+     */
+    static void put(ContentValues values, String column, @Nullable String text) {
+        byte[] compressed = compress(text);
+        if (compressed == null) {
+            values.put(column, text);
+        } else {
+            values.put(column, compressed);
+        }
+    }
+
+    /**
+     * @return The deflated {@code text}, or {@code null} if it would not get any smaller.
+     */
+    @Nullable
+    static byte[] compress(@Nullable String text) {
+        if (text == null || text.length() < MIN_LENGTH) {
+            return null;
+        }
+        byte[] input = text.getBytes(UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+            output.write(FORMAT_DEFLATE);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.size() < input.length ? output.toByteArray() : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads a column which was written with {@link #put(ContentValues, String, String)}.
+     */
+    @Nullable
+    static String getString(Cursor cursor, int columnIndex) {
+        if (cursor.getType(columnIndex) != Cursor.FIELD_TYPE_BLOB) {
+            return cursor.getString(columnIndex);
+        }
+        return decompress(cursor.getBlob(columnIndex));
+    }
+
+    @Nullable
+    static String decompress(byte[] data) {
+        if (data.length == 0 || data[0] != FORMAT_DEFLATE) {
+            Log.e(TAG, "Unknown format of compressed text, ignoring it");
+            return null;
+        }
+        // Raw deflate needs an extra byte at the end of its input, see Inflater(boolean)
+        byte[] input = Arrays.copyOfRange(data, 1, data.length + 1);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(input);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 3);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    Log.e(TAG, "Compressed text is truncated, ignoring it");
+                    return null;
+                }
+                output.write(buffer, 0, count);
+            }
+            return new String(output.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            Log.e(TAG, "Could not decompress text, ignoring it", e);
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -129,6 +129,14 @@ public class DBHelper extends SQLiteOpenHelper {
                     + ApkTable.Cols.INCOMPATIBLE_REASONS + " text"
                     + ");";
 
+    /**
+     * The long text and the lists of graphics are only shown on the details screen, so they
+     * come last.  SQLite reads a row from the start and stops at the last column a query
+     * asks for, so the lists of apps don't have to load the overflow pages which long
+     * descriptions spill into.
+     *
+     * @see AppMetadataTable.Cols#LIST
+     */
     static final String CREATE_TABLE_APP_METADATA = "CREATE TABLE " + AppMetadataTable.NAME
             + " ( "
             + AppMetadataTable.Cols.PACKAGE_ID + " integer not null, "
@@ -136,8 +144,6 @@ public class DBHelper extends SQLiteOpenHelper {
             + AppMetadataTable.Cols.NAME + " text not null, "
             + AppMetadataTable.Cols.SUMMARY + " text not null, "
             + AppMetadataTable.Cols.ICON + " text, "
-            + AppMetadataTable.Cols.DESCRIPTION + " text not null, "
-            + AppMetadataTable.Cols.WHATSNEW + " text, "
             + AppMetadataTable.Cols.LICENSE + " text not null, "
             + AppMetadataTable.Cols.AUTHOR_NAME + " text, "
             + AppMetadataTable.Cols.AUTHOR_EMAIL + " text, "
@@ -163,6 +169,8 @@ public class DBHelper extends SQLiteOpenHelper {
             + AppMetadataTable.Cols.LAST_UPDATED + " string,"
             + AppMetadataTable.Cols.IS_COMPATIBLE + " int not null,"
             + AppMetadataTable.Cols.ICON_URL + " text, "
+            + AppMetadataTable.Cols.IS_APK + " boolean,"
+            + AppMetadataTable.Cols.IS_LOCALIZED + " boolean,"
             + AppMetadataTable.Cols.FEATURE_GRAPHIC + " string,"
             + AppMetadataTable.Cols.PROMO_GRAPHIC + " string,"
             + AppMetadataTable.Cols.TV_BANNER + " string,"
@@ -171,8 +179,8 @@ public class DBHelper extends SQLiteOpenHelper {
             + AppMetadataTable.Cols.TEN_INCH_SCREENSHOTS + " string,"
             + AppMetadataTable.Cols.TV_SCREENSHOTS + " string,"
             + AppMetadataTable.Cols.WEAR_SCREENSHOTS + " string,"
-            + AppMetadataTable.Cols.IS_APK + " boolean,"
-            + AppMetadataTable.Cols.IS_LOCALIZED + " boolean,"
+            + AppMetadataTable.Cols.WHATSNEW + " text, "
+            + AppMetadataTable.Cols.DESCRIPTION + " text not null, "
             + "primary key(" + AppMetadataTable.Cols.PACKAGE_ID + ", " + AppMetadataTable.Cols.REPO_ID + "));";
 
     private static final String CREATE_TABLE_APP_PREFS = "CREATE TABLE " + AppPrefsTable.NAME
@@ -228,13 +236,18 @@ public class DBHelper extends SQLiteOpenHelper {
             + "primary key(" + ApkAntiFeatureJoinTable.Cols.APK_ID + ", " + ApkAntiFeatureJoinTable.Cols.ANTI_FEATURE_ID + ") "
             + " );";
 
-    protected static final int DB_VERSION = 85;
+    protected static final int DB_VERSION = 86;
 
     private final Context context;
 
     DBHelper(Context context) {
         super(context, DATABASE_NAME, null, DB_VERSION);
         this.context = context.getApplicationContext();
+        // Write-ahead logging lets the list queries keep reading the last committed
+        // snapshot on a pooled connection while an update holds a long write transaction.
+        // This only works as long as nothing ever ATTACHes another database, since
+        // {@link SQLiteDatabase} silently turns WAL off for good once that happens.
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
@@ -459,6 +472,17 @@ public class DBHelper extends SQLiteOpenHelper {
         switchRepoArchivePriorities(db, oldVersion);
         deleteOldIconUrls(db, oldVersion);
         addOpenCollective(db, oldVersion);
+        moveDescriptionToEndOfApp(db, oldVersion);
+    }
+
+    private void moveDescriptionToEndOfApp(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion >= 86) {
+            return;
+        }
+
+        Log.i(TAG, "Forcing repo refresh to move " + AppMetadataTable.Cols.DESCRIPTION + " to the end of "
+                + AppMetadataTable.NAME);
+        resetTransient(db);
     }
 
     private void addOpenCollective(SQLiteDatabase db, int oldVersion) {
@@ -1349,6 +1373,7 @@ public class DBHelper extends SQLiteOpenHelper {
 
             db.execSQL("DROP TABLE " + AppMetadataTable.NAME);
             db.execSQL("DROP TABLE " + ApkTable.NAME);
+            TempAppProvider.dropTempTables(db);
 
             db.execSQL(CREATE_TABLE_PACKAGE);
             db.execSQL(CREATE_TABLE_APP_METADATA);
@@ -54,7 +54,8 @@ public abstract class FDroidProvider extends ContentProvider {
         ContentProviderResult[] result = null;
         applyingBatch = true;
         final SQLiteDatabase db = db();
-        db.beginTransaction();
+        // With write-ahead logging, this lets list queries read on while a batch is written.
+        db.beginTransactionNonExclusive();
         try {
             result = super.applyBatch(operations);
             db.setTransactionSuccessful();
@@ -3,13 +3,17 @@ package org.fdroid.fdroid.data;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
 
 import org.fdroid.fdroid.BuildConfig;
 import org.fdroid.fdroid.Utils;
 
 /**
- * Helper class to log slow queries to logcat when in debug mode. When not in debug mode, it
- * runs the queries without any logging.
+ * Helper class to log slow queries to logcat when in debug mode. In all builds, it also
+ * records the duration and row count of each query in {@link QueryStats}, along with the
+ * query plan of outliers, keyed by a pattern describing where the query came from.
  *
  * Here is an example of what would be output to logcat for a query that takes too long (except the
  * query would not be formatted as nicely):
@@ -36,36 +40,31 @@ import org.fdroid.fdroid.Utils;
  */
 final class LoggingQuery {
 
-    private static final long SLOW_QUERY_DURATION = 100;
+    private static final long SLOW_QUERY_DURATION = QueryStats.OUTLIER_DURATION;
     private static final String TAG = "Slow Query";
 
     private final SQLiteDatabase db;
+    private final String pattern;
     private final String query;
     private final String[] queryArgs;
 
-    private LoggingQuery(SQLiteDatabase db, String query, String[] queryArgs) {
+    private LoggingQuery(SQLiteDatabase db, String pattern, String query, String[] queryArgs) {
         this.db = db;
+        this.pattern = pattern;
         this.query = query;
         this.queryArgs = queryArgs;
     }
 
     /**
-     * When running a debug build, this will log details (including query plans) for any query which
-     * takes longer than {@link LoggingQuery#SLOW_QUERY_DURATION}.
+     * Runs the query, and records how long it took in {@link QueryStats} once the rows are
+     * counted. When running a debug build, this will also log details (including query plans)
+     * for any query which takes longer than {@link LoggingQuery#SLOW_QUERY_DURATION}.
      */
     private Cursor rawQuery() {
-        if (BuildConfig.DEBUG) {
-            long startTime = System.currentTimeMillis();
-            Cursor cursor = db.rawQuery(query, queryArgs);
-            long queryDuration = System.currentTimeMillis() - startTime;
-
-            if (queryDuration >= SLOW_QUERY_DURATION) {
-                logSlowQuery(queryDuration);
-            }
-
-            return new LogGetCountCursorWrapper(cursor);
-        }
-        return db.rawQuery(query, queryArgs);
+        long startTime = SystemClock.elapsedRealtime();
+        Cursor cursor = db.rawQuery(query, queryArgs);
+        long queryDuration = SystemClock.elapsedRealtime() - startTime;
+        return new LogGetCountCursorWrapper(cursor, queryDuration);
     }
 
     /**
@@ -74,38 +73,48 @@ final class LoggingQuery {
      * method to manually invoke the {@link Cursor#getCount()} method to force query execution.
      * It does so with a comment saying "Force query execution". When this happens, the call to
      * query() takes 1ms, whereas the call go getCount() is the bit which takes time.
-     * As such, we will also track that method duration in order to potentially log slow queries.
+     * As such, we will also track that method duration, and record the total once along with
+     * the number of rows. If the rows are never counted, the query is recorded when closed.
      */
     private final class LogGetCountCursorWrapper extends CursorWrapper {
-        private LogGetCountCursorWrapper(Cursor cursor) {
+        private final long rawQueryDuration;
+        private boolean recorded;
+
+        private LogGetCountCursorWrapper(Cursor cursor, long rawQueryDuration) {
             super(cursor);
+            this.rawQueryDuration = rawQueryDuration;
         }
 
         @Override
         public int getCount() {
-            long startTime = System.currentTimeMillis();
-            int count = super.getCount();
-            long queryDuration = System.currentTimeMillis() - startTime;
-            if (queryDuration >= SLOW_QUERY_DURATION) {
-                logSlowQuery(queryDuration);
+            if (recorded) {
+                return super.getCount();
             }
+            long startTime = SystemClock.elapsedRealtime();
+            int count = super.getCount();
+            long queryDuration = SystemClock.elapsedRealtime() - startTime;
+            recorded = true;
+            record(rawQueryDuration + queryDuration, count);
             return count;
         }
-    }
 
-    private void execSQLInternal() {
-        if (BuildConfig.DEBUG) {
-            long startTime = System.currentTimeMillis();
-            long queryDuration = System.currentTimeMillis() - startTime;
-            executeSQLInternal();
-            if (queryDuration >= SLOW_QUERY_DURATION) {
-                logSlowQuery(queryDuration);
+        @Override
+        public void close() {
+            if (!recorded) {
+                recorded = true;
+                record(rawQueryDuration, -1);
             }
-        } else {
-            executeSQLInternal();
+            super.close();
         }
     }
 
+    private void execSQLInternal() {
+        long startTime = SystemClock.elapsedRealtime();
+        executeSQLInternal();
+        long queryDuration = SystemClock.elapsedRealtime() - startTime;
+        record(queryDuration, -1);
+    }
+
     private void executeSQLInternal() {
         if (queryArgs == null || queryArgs.length == 0) {
             db.execSQL(query);
@@ -114,6 +123,20 @@ final class LoggingQuery {
         }
     }
 
+    private void record(long queryDuration, int rows) {
+        if (QueryStats.record(pattern, queryDuration, rows)) {
+            try {
+                QueryStats.recordPlan(pattern, query, getExplainQueryPlan());
+            } catch (Exception e) {
+                // See logSlowQuery(), the plan is only a nice to have.
+            }
+        }
+
+        if (BuildConfig.DEBUG && queryDuration >= SLOW_QUERY_DURATION) {
+            logSlowQuery(queryDuration);
+        }
+    }
+
     /**
      * Log the query and its duration to the console. In addition, execute an "EXPLAIN QUERY PLAN"
      * for the query in question so that the query can be diagnosed (https://sqlite.org/eqp.html)
@@ -150,7 +173,7 @@ final class LoggingQuery {
             // EXPLAIN QUERY PLAN can change between SQLite versions. This has been observed
             // between the sqlite versions on Android 2.3.3 and Android 5.0. However, it seems
             // that the last column is always the one with the interesting details that we wish
-            // to log. If this fails for some reason, then hey, it is only for debug builds, right?
+            // to log. If this fails for some reason, then hey, it is only diagnostics, right?
             if (cursor.getColumnCount() > 0) {
                 int index = cursor.getColumnCount() - 1;
                 plan[cursor.getPosition()] = cursor.getString(index);
@@ -161,11 +184,38 @@ final class LoggingQuery {
         return plan;
     }
 
-    public static Cursor rawQuery(SQLiteDatabase db, String query, String[] queryBuilderArgs) {
-        return new LoggingQuery(db, query, queryBuilderArgs).rawQuery();
+    /**
+     * Turns a content {@link Uri} into a pattern which groups together all queries for the
+     * same kind of data, e.g. {@code content://org.fdroid.fdroid.data.AppProvider/app/42/org.fdroid.fdroid}
+     * becomes {@code AppProvider/app/#/*}.  The first path segment is kept verbatim since
+     * that is what the providers use to decide what sort of query to run.
+     */
+    static String getUriPattern(Uri uri) {
+        String authority = uri.getAuthority();
+        StringBuilder sb = new StringBuilder(authority == null ? "" : authority.substring(authority.lastIndexOf('.') + 1));
+        boolean first = true;
+        for (String segment : uri.getPathSegments()) {
+            sb.append('/');
+            if (first) {
+                sb.append(segment);
+                first = false;
+            } else if (TextUtils.isDigitsOnly(segment)) {
+                sb.append('#');
+            } else {
+                sb.append('*');
+            }
+        }
+        return sb.toString();
+    }
+
+    public static Cursor rawQuery(SQLiteDatabase db, Uri uri, String query, String[] queryBuilderArgs) {
+        return new LoggingQuery(db, getUriPattern(uri), query, queryBuilderArgs).rawQuery();
     }
 
-    public static void execSQL(SQLiteDatabase db, String sql, String[] queryArgs) {
-        new LoggingQuery(db, sql, queryArgs).execSQLInternal();
+    /**
+     * @param name describes where this statement comes from, for grouping in {@link QueryStats}
+     */
+    public static void execSQL(SQLiteDatabase db, String name, String sql, String[] queryArgs) {
+        new LoggingQuery(db, name, sql, queryArgs).execSQLInternal();
     }
 }
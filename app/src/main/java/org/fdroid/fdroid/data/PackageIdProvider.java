@@ -140,7 +140,7 @@ public class PackageIdProvider extends FDroidProvider {
         query.addFields(projection);
         query.addOrderBy(sortOrder);
 
-        Cursor cursor = LoggingQuery.rawQuery(db(), query.toString(), query.getArgs());
+        Cursor cursor = LoggingQuery.rawQuery(db(), uri, query.toString(), query.getArgs());
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -0,0 +1,145 @@
+package org.fdroid.fdroid.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects latency and row count statistics for every query run through {@link LoggingQuery},
+ * grouped by the URI pattern (or the name of the update statement) which triggered them.
+ * Unlike the logging in {@link LoggingQuery}, this is active in release builds too, so that
+ * the numbers can be collected from slow devices in the field and shared from the settings.
+ * <p>
+ * Recording a query is only a handful of increments in a histogram with fixed buckets, so
+ * the overhead is negligible compared to running the query itself.  The expensive part,
+ * running {@code EXPLAIN QUERY PLAN}, only happens for outliers which are slower than any
+ * query seen before for that pattern, so it is bounded by the number of patterns.
+ * <p>
+ * The statistics only live as long as the process, they are not persisted anywhere.
+ */
+public final class QueryStats {
+
+    /**
+     * Queries at least this slow have their query plan recorded.
+     */
+    static final long OUTLIER_DURATION = 100;
+
+    /**
+     * The upper bounds in milliseconds of each histogram bucket, the final bucket
+     * is for anything slower than the last bound here.
+     */
+    private static final long[] BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private static final Map<String, PatternStats> STATS = new TreeMap<>();
+
+    private QueryStats() {
+    }
+
+    private static final class PatternStats {
+        final long[] histogram = new long[BUCKETS.length + 1];
+        long count;
+        long totalDuration;
+        long maxDuration;
+        long totalRows;
+        long countedQueries;
+        String outlierQuery;
+        String[] outlierPlan;
+
+        void add(long duration, int rows) {
+            int bucket = 0;
+            while (bucket < BUCKETS.length && duration > BUCKETS[bucket]) {
+                bucket++;
+            }
+            histogram[bucket]++;
+            count++;
+            totalDuration += duration;
+            if (duration > maxDuration) {
+                maxDuration = duration;
+            }
+            if (rows >= 0) {
+                totalRows += rows;
+                countedQueries++;
+            }
+        }
+    }
+
+    /**
+     * @param rows the number of rows the query returned, or {@code -1} if that is unknown,
+     *             e.g. for {@code UPDATE} statements.
+     * @return whether this query is an outlier which is slower than anything seen
+     * before for {@code pattern}, in which case {@link #recordPlan(String, String, String[])}
+     * should be called with its query plan.
+     */
+    static synchronized boolean record(String pattern, long duration, int rows) {
+        PatternStats stats = STATS.get(pattern);
+        if (stats == null) {
+            stats = new PatternStats();
+            STATS.put(pattern, stats);
+        }
+        boolean isNewOutlier = duration >= OUTLIER_DURATION && duration > stats.maxDuration;
+        stats.add(duration, rows);
+        return isNewOutlier;
+    }
+
+    static synchronized void recordPlan(String pattern, String query, String[] plan) {
+        PatternStats stats = STATS.get(pattern);
+        if (stats != null) {
+            stats.outlierQuery = query;
+            stats.outlierPlan = plan;
+        }
+    }
+
+    public static synchronized void clear() {
+        STATS.clear();
+    }
+
+    /**
+     * A plain text report of everything recorded since the process started, suitable for
+     * pasting into a bug report.  Each pattern gets a line with its totals, then a line with
+     * the histogram, then the plan of its slowest query if it was an outlier.
+     */
+    public static synchronized String getReport() {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder header = new StringBuilder("pattern count avgMs maxMs avgRows |");
+        for (long bound : BUCKETS) {
+            header.append(" <=").append(bound);
+        }
+        header.append(" >").append(BUCKETS[BUCKETS.length - 1]);
+        sb.append(header).append('\n');
+
+        for (Map.Entry<String, PatternStats> entry : STATS.entrySet()) {
+            PatternStats stats = entry.getValue();
+            sb.append(entry.getKey())
+                    .append(' ').append(stats.count)
+                    .append(' ').append(stats.totalDuration / stats.count)
+                    .append(' ').append(stats.maxDuration)
+                    .append(' ').append(stats.countedQueries == 0 ? "-" : stats.totalRows / stats.countedQueries)
+                    .append(" |");
+            for (long bucketCount : stats.histogram) {
+                sb.append(' ').append(bucketCount);
+            }
+            sb.append('\n');
+            if (stats.outlierPlan != null) {
+                sb.append("  slowest: ").append(stats.outlierQuery).append('\n');
+                for (String plan : stats.outlierPlan) {
+                    sb.append("    ").append(plan).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the patterns recorded so far, in alphabetical order.
+     */
+    static synchronized List<String> getPatterns() {
+        return Collections.unmodifiableList(new ArrayList<>(STATS.keySet()));
+    }
+
+    static synchronized long getCount(String pattern) {
+        PatternStats stats = STATS.get(pattern);
+        return stats == null ? 0 : stats.count;
+    }
+}
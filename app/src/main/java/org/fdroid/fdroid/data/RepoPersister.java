@@ -1,14 +1,18 @@
 package org.fdroid.fdroid.data;
 
+import android.app.ActivityManager;
 import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.net.Uri;
 import android.os.RemoteException;
+import android.os.SystemClock;
 
 import org.fdroid.fdroid.CompatibilityChecker;
 import org.fdroid.fdroid.IndexUpdater;
+import org.fdroid.fdroid.UpdateCheckpoint;
+import org.fdroid.fdroid.UpdateTimings;
 import org.fdroid.fdroid.Utils;
 
 import java.util.ArrayList;
@@ -17,22 +21,12 @@ import java.util.List;
 import java.util.Map;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 
 public class RepoPersister {
 
     private static final String TAG = "RepoPersister";
 
-    /**
-     * Crappy benchmark with a Nexus 4, Android 5.0 on a fairly crappy internet connection I get:
-     * * 25 = 37 seconds
-     * * 50 = 33 seconds
-     * * 100 = 30 seconds
-     * * 200 = 32 seconds
-     * Raising this means more memory consumption, so we'd like it to be low, but not
-     * so low that it takes too long.
-     */
-    private static final int MAX_APP_BUFFER = 50;
-
     @NonNull
     private final Repo repo;
 
@@ -50,44 +44,119 @@ public class RepoPersister {
     @NonNull
     private final CompatibilityChecker checker;
 
+    @NonNull
+    private final FlushPolicy flushPolicy;
+
+    /**
+     * The number of packages in {@link #apksToSave}, where apps without any
+     * packages count as one, since they still need to be written.
+     */
+    private int packagesToSave;
+
+    /**
+     * How many apps have been written to the temp tables, and how many of those are still to
+     * come past {@link #saveToDb(App, List)} again when resuming an interrupted update.
+     */
+    private int appsSaved;
+    private int appsToSkip;
+
     public RepoPersister(@NonNull Context context, @NonNull Repo repo) {
         this.repo = repo;
         this.context = context;
         checker = new CompatibilityChecker(context);
+        flushPolicy = new FlushPolicy(getAvailableHeap(context));
+    }
+
+    /**
+     * Carries on from an update of the same index which was killed after writing
+     * {@code appsAlreadySaved} apps to the temp tables, as long as exactly that many are
+     * still there.  Otherwise, the update starts over with empty temp tables as usual.
+     *
+     * @see UpdateCheckpoint
+     */
+    public void resume(int appsAlreadySaved) {
+        if (appsAlreadySaved > 0 && TempAppProvider.Helper.countApps(context, repo.getId()) == appsAlreadySaved) {
+            Utils.debugLog(TAG, "Resuming after the " + appsAlreadySaved + " apps already in the temp tables.");
+            hasBeenInitialized = true;
+            appsSaved = appsAlreadySaved;
+            appsToSkip = appsAlreadySaved;
+        }
     }
 
     public void saveToDb(App app, List<Apk> packages) throws IndexUpdater.UpdateException {
+        if (appsToSkip > 0) {
+            appsToSkip--;
+            return;
+        }
         appsToSave.add(app);
         apksToSave.put(app.packageName, packages);
+        packagesToSave += Math.max(1, packages.size());
 
-        if (appsToSave.size() >= MAX_APP_BUFFER) {
+        if (packagesToSave >= flushPolicy.getPackageLimit()) {
             flushBufferToDb();
         }
     }
 
+    /**
+     * How much more the heap can grow, bounded by the {@link ActivityManager#getMemoryClass()
+     * memory class} of the device, since that is what apps are expected to stay within.
+     */
+    private static long getAvailableHeap(Context context) {
+        Runtime runtime = Runtime.getRuntime();
+        long maxHeap = runtime.maxMemory();
+        ActivityManager activityManager = ContextCompat.getSystemService(context, ActivityManager.class);
+        if (activityManager != null && activityManager.getMemoryClass() > 0) {
+            maxHeap = Math.min(maxHeap, activityManager.getMemoryClass() * 1024L * 1024L);
+        }
+        return maxHeap - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
     public void commit(ContentValues repoDetailsToSave, long repoIdToCommit) throws IndexUpdater.UpdateException {
         flushBufferToDb();
-        TempAppProvider.Helper.commitAppsAndApks(context, repoIdToCommit);
-        RepoProvider.Helper.update(context, repo, repoDetailsToSave);
+        UpdateTimings.begin(UpdateTimings.Phase.COMMIT);
+        try {
+            TempAppProvider.Helper.commitAppsAndApks(context, repoIdToCommit);
+            RepoProvider.Helper.update(context, repo, repoDetailsToSave);
+        } finally {
+            UpdateTimings.end();
+        }
     }
 
     private void flushBufferToDb() throws IndexUpdater.UpdateException {
+        UpdateTimings.begin(UpdateTimings.Phase.TEMP_INSERT);
+        try {
+            flushBufferToTempTables();
+        } finally {
+            UpdateTimings.end();
+        }
+    }
+
+    private void flushBufferToTempTables() throws IndexUpdater.UpdateException {
         if (!hasBeenInitialized) {
             // This is where we will store all of the metadata before committing at the
             // end of the process. This is due to the fact that we can't verify the cert
             // the index was signed with until we've finished reading it - and we don't
             // want to put stuff in the real database until we are sure it is from a
-            // trusted source. It also helps performance as it is done via an in-memory database.
+            // trusted source. It also means the long write transactions happen away from the
+            // tables which the app lists are reading from.
             TempAppProvider.Helper.init(context, repo.getId());
+            UpdateCheckpoint.onTempTablesInit(context, repo.getId());
             hasBeenInitialized = true;
         }
 
         if (apksToSave.size() > 0 || appsToSave.size() > 0) {
-            Utils.debugLog(TAG, "Flushing details of up to " + MAX_APP_BUFFER + " apps/packages to the database.");
+            Utils.debugLog(TAG, "Flushing details of " + appsToSave.size() + " apps and "
+                    + packagesToSave + " packages to the database.");
+            long startTime = SystemClock.elapsedRealtime();
             Map<String, Long> appIds = flushAppsToDbInBatch();
             flushApksToDbInBatch(appIds);
+            flushPolicy.onFlush(packagesToSave, SystemClock.elapsedRealtime() - startTime,
+                    getAvailableHeap(context));
+            appsSaved += appsToSave.size();
+            UpdateCheckpoint.onAppsSaved(context, repo.getId(), appsSaved);
             apksToSave.clear();
             appsToSave.clear();
+            packagesToSave = 0;
         }
     }
 
@@ -174,6 +243,64 @@ public class RepoPersister {
         return operations;
     }
 
+    /**
+     * Decides how many packages to buffer before each flush to the temp tables.  The old
+     * fixed buffer of 50 apps came from timing a Nexus 4 on Android 5.0, where 25 apps took
+     * 37 seconds, 50 took 33, 100 took 30, and 200 took 32.  Devices vary too much for one
+     * number to suit all of them, so this aims for each flush to take about
+     * {@link #TARGET_FLUSH_MILLIS}, going by how long the previous flushes took, which means
+     * fewer, larger transactions on fast devices.  It counts packages rather than apps since
+     * that is what most of the time and memory goes on, and it never lets the buffer use more
+     * than a fraction of the heap that is still available.
+     */
+    static final class FlushPolicy {
+        static final int MIN_PACKAGES = 50;
+        static final int MAX_PACKAGES = 2000;
+        static final int INITIAL_PACKAGES = 150;
+        static final long TARGET_FLUSH_MILLIS = 500;
+
+        /**
+         * A generous estimate of the heap used by each buffered {@link Apk}, including
+         * its share of the {@link App} and the {@link ContentValues} made from them.
+         */
+        static final long BYTES_PER_PACKAGE = 8 * 1024;
+
+        /**
+         * The buffer is allowed to use up to one part in this many of the available heap.
+         */
+        static final int HEAP_FRACTION = 8;
+
+        private int packageLimit;
+
+        FlushPolicy(long availableHeap) {
+            packageLimit = clamp(INITIAL_PACKAGES, availableHeap);
+        }
+
+        int getPackageLimit() {
+            return packageLimit;
+        }
+
+        /**
+         * Adjusts the limit based on a flush of {@code packages} which took {@code duration}.
+         * Small flushes, like the last one of each repo, say little about the speed of the
+         * device and are ignored.  The limit at most doubles or halves each time, so a
+         * single slow flush, e.g. when the disk is busy, doesn't throw it off.
+         */
+        void onFlush(int packages, long duration, long availableHeap) {
+            if (packages >= packageLimit / 2) {
+                long target = packages * TARGET_FLUSH_MILLIS / Math.max(1, duration);
+                target = Math.max(packageLimit / 2, Math.min(packageLimit * 2L, target));
+                packageLimit = (int) target;
+            }
+            packageLimit = clamp(packageLimit, availableHeap);
+        }
+
+        private static int clamp(long packages, long availableHeap) {
+            long byMemory = availableHeap / HEAP_FRACTION / BYTES_PER_PACKAGE;
+            return (int) Math.max(MIN_PACKAGES, Math.min(Math.min(MAX_PACKAGES, byMemory), packages));
+        }
+    }
+
     /**
      * This cannot be offloaded to the database (as we did with the query which
      * updates apps, depending on whether their apks are compatible or not).
@@ -181,15 +308,20 @@ public class RepoPersister {
      * in order to see if, and why an apk is not compatible.
      */
     private void calcApkCompatibilityFlags(List<Apk> apks) {
-        for (final Apk apk : apks) {
-            final List<String> reasons = checker.getIncompatibleReasons(apk);
-            if (reasons.isEmpty()) {
-                apk.compatible = true;
-                apk.incompatibleReasons = null;
-            } else {
-                apk.compatible = false;
-                apk.incompatibleReasons = reasons.toArray(new String[reasons.size()]);
+        UpdateTimings.begin(UpdateTimings.Phase.COMPATIBILITY);
+        try {
+            for (final Apk apk : apks) {
+                final List<String> reasons = checker.getIncompatibleReasons(apk);
+                if (reasons.isEmpty()) {
+                    apk.compatible = true;
+                    apk.incompatibleReasons = null;
+                } else {
+                    apk.compatible = false;
+                    apk.incompatibleReasons = reasons.toArray(new String[reasons.size()]);
+                }
             }
+        } finally {
+            UpdateTimings.end();
         }
     }
 
@@ -11,6 +11,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import org.fdroid.fdroid.AppUpdateStatusManager;
+import org.fdroid.fdroid.IndexSnapshot;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Schema.RepoTable;
 import org.fdroid.fdroid.data.Schema.RepoTable.Cols;
@@ -239,6 +240,7 @@ public class RepoProvider extends FDroidProvider {
             ContentResolver resolver = context.getContentResolver();
             Uri uri = RepoProvider.getContentUri(repoId);
             resolver.delete(uri, null, null);
+            IndexSnapshot.delete(context, repoId);
         }
 
         public static void purgeApps(Context context, Repo repo) {
@@ -31,6 +31,7 @@ import org.xml.sax.helpers.DefaultHandler;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import androidx.annotation.NonNull;
@@ -101,44 +102,7 @@ public class RepoXMLHandler extends DefaultHandler {
         if ("application".equals(localName) && curapp != null) {
             onApplicationParsed();
         } else if ("package".equals(localName) && curapk != null && curapp != null) {
-            if (Build.VERSION.SDK_INT >= 16 &&
-                    requestedPermissionsSet.contains(Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
-                requestedPermissionsSet.add(Manifest.permission.READ_EXTERNAL_STORAGE);
-            }
-            if (Build.VERSION.SDK_INT >= 29) {
-                if (requestedPermissionsSet.contains(Manifest.permission.ACCESS_FINE_LOCATION)) {
-                    requestedPermissionsSet.add(Manifest.permission.ACCESS_COARSE_LOCATION);
-                }
-                if (curapk.targetSdkVersion >= 29) {
-                    // Do nothing. The targetSdk for the below split-permissions is set to 29,
-                    // so we don't make any changes for apps targetting 29 or above
-                } else {
-                    // TODO: Change the strings below to Manifest.permission once we target SDK 29.
-                    if (requestedPermissionsSet.contains(Manifest.permission.ACCESS_FINE_LOCATION)) {
-                        requestedPermissionsSet.add("android.permission.ACCESS_BACKGROUND_LOCATION");
-                    }
-                    if (requestedPermissionsSet.contains(Manifest.permission.ACCESS_COARSE_LOCATION)) {
-                        requestedPermissionsSet.add("android.permission.ACCESS_BACKGROUND_LOCATION");
-                    }
-                    if (requestedPermissionsSet.contains(Manifest.permission.READ_EXTERNAL_STORAGE)) {
-                        requestedPermissionsSet.add("android.permission.ACCESS_MEDIA_LOCATION");
-                    }
-                }
-            }
-            if (Build.VERSION.SDK_INT >= 31) {
-                if (curapk.targetSdkVersion >= 31) {
-                    // Do nothing. The targetSdk for the below split-permissions is set to 31,
-                    // so we don't make any changes for apps targetting 31 or above
-                } else {
-                    // TODO: Change the strings below to Manifest.permission once we target SDK 31.
-                    if (requestedPermissionsSet.contains(Manifest.permission.BLUETOOTH) ||
-                            requestedPermissionsSet.contains(Manifest.permission.BLUETOOTH_ADMIN)) {
-                        requestedPermissionsSet.add("android.permission.BLUETOOTH_SCAN");
-                        requestedPermissionsSet.add("android.permission.BLUETOOTH_CONNECT");
-                        requestedPermissionsSet.add("android.permission.BLUETOOTH_ADVERTISE");
-                    }
-                }
-            }
+            addImpliedPermissions(requestedPermissionsSet, curapk.targetSdkVersion);
             int size = requestedPermissionsSet.size();
             curapk.requestedPermissions = requestedPermissionsSet.toArray(new String[size]);
             requestedPermissionsSet.clear();
@@ -310,6 +274,52 @@ public class RepoXMLHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Adds the permissions which the platform grants implicitly, based on the permissions
+     * requested and the {@code targetSdkVersion} of the APK.  This is shared with
+     * {@link RepoXMLPullParser} so both parsers always produce the same set.
+     */
+    static void addImpliedPermissions(Set<String> permissions, int targetSdkVersion) {
+        if (Build.VERSION.SDK_INT >= 16 &&
+                permissions.contains(Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
+            permissions.add(Manifest.permission.READ_EXTERNAL_STORAGE);
+        }
+        if (Build.VERSION.SDK_INT >= 29) {
+            if (permissions.contains(Manifest.permission.ACCESS_FINE_LOCATION)) {
+                permissions.add(Manifest.permission.ACCESS_COARSE_LOCATION);
+            }
+            if (targetSdkVersion >= 29) {
+                // Do nothing. The targetSdk for the below split-permissions is set to 29,
+                // so we don't make any changes for apps targetting 29 or above
+            } else {
+                // TODO: Change the strings below to Manifest.permission once we target SDK 29.
+                if (permissions.contains(Manifest.permission.ACCESS_FINE_LOCATION)) {
+                    permissions.add("android.permission.ACCESS_BACKGROUND_LOCATION");
+                }
+                if (permissions.contains(Manifest.permission.ACCESS_COARSE_LOCATION)) {
+                    permissions.add("android.permission.ACCESS_BACKGROUND_LOCATION");
+                }
+                if (permissions.contains(Manifest.permission.READ_EXTERNAL_STORAGE)) {
+                    permissions.add("android.permission.ACCESS_MEDIA_LOCATION");
+                }
+            }
+        }
+        if (Build.VERSION.SDK_INT >= 31) {
+            if (targetSdkVersion >= 31) {
+                // Do nothing. The targetSdk for the below split-permissions is set to 31,
+                // so we don't make any changes for apps targetting 31 or above
+            } else {
+                // TODO: Change the strings below to Manifest.permission once we target SDK 31.
+                if (permissions.contains(Manifest.permission.BLUETOOTH) ||
+                        permissions.contains(Manifest.permission.BLUETOOTH_ADMIN)) {
+                    permissions.add("android.permission.BLUETOOTH_SCAN");
+                    permissions.add("android.permission.BLUETOOTH_CONNECT");
+                    permissions.add("android.permission.BLUETOOTH_ADVERTISE");
+                }
+            }
+        }
+    }
+
     private static final Pattern OLD_FDROID_PERMISSION = Pattern.compile("[A-Z_]+");
 
     /**
@@ -430,11 +440,11 @@ public class RepoXMLHandler extends DefaultHandler {
         curchars.setLength(0);
     }
 
-    private static String cleanWhiteSpace(@Nullable String str) {
+    static String cleanWhiteSpace(@Nullable String str) {
         return str == null ? null : str.replaceAll("\\s", " ");
     }
 
-    private static long parseLong(String str, long fallback) {
+    static long parseLong(String str, long fallback) {
         if (str == null || str.length() == 0) {
             return fallback;
         }
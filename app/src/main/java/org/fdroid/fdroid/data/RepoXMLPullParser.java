@@ -0,0 +1,454 @@
+package org.fdroid.fdroid.data;
+
+import android.os.Build;
+import android.util.Xml;
+
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Parses the index.xml into Java data structures, producing exactly the same results as
+ * {@link RepoXMLHandler}, but with a pull parser.  Each {@code <application>} is read in
+ * one go straight into an {@link App} and its {@link Apk}s, then handed to the
+ * {@link RepoXMLHandler.IndexReceiver}, so nothing is buffered beyond the current app.
+ * The numeric fields are decoded directly from the parser's character buffer, without
+ * first making a {@link String} of them, since there are several per package and swap
+ * repos from large peers can have thousands of packages.
+ */
+public class RepoXMLPullParser {
+
+    private final Repo repo;
+    private final RepoXMLHandler.IndexReceiver receiver;
+
+    private int repoMaxAge = -1;
+    private int repoVersion;
+    private long repoTimestamp;
+    private String repoDescription;
+    private String repoName;
+    private String repoIcon;
+    private final ArrayList<String> repoMirrors = new ArrayList<>();
+    private String repoSigningCert;
+
+    /**
+     * Set of requested permissions of the package currently being parsed.
+     */
+    private final HashSet<String> requestedPermissionsSet = new HashSet<>();
+
+    /**
+     * Receives the start and length of the text from
+     * {@link XmlPullParser#getTextCharacters(int[])}.
+     */
+    private final int[] textBounds = new int[2];
+
+    public RepoXMLPullParser(Repo repo, @NonNull RepoXMLHandler.IndexReceiver receiver) {
+        this.repo = repo;
+        this.receiver = receiver;
+    }
+
+    /**
+     * @throws IllegalArgumentException if an app has an unsafe package name
+     */
+    public void parse(InputStream input) throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(input, null);
+
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.END_TAG && "repo".equals(parser.getName())) {
+                receiver.receiveRepo(repoName, repoDescription, repoSigningCert, repoMaxAge, repoVersion,
+                        repoTimestamp, repoIcon, repoMirrors.toArray(new String[repoMirrors.size()]));
+            } else if (eventType == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                switch (name) {
+                    case "repo":
+                        parseRepoAttributes(parser);
+                        break;
+                    case "application":
+                        parseApplication(parser);
+                        break;
+                    case "description":
+                        String description = readText(parser);
+                        if (description != null) {
+                            repoDescription = RepoXMLHandler.cleanWhiteSpace(description);
+                        }
+                        break;
+                    case "mirror":
+                        String mirror = readText(parser);
+                        if (mirror != null) {
+                            repoMirrors.add(mirror);
+                        }
+                        break;
+                    default:
+                        if (RepoPushRequest.VALID_REQUESTS.contains(name)
+                                && repo.pushRequests == Repo.PUSH_REQUEST_ACCEPT_ALWAYS) {
+                            receiver.receiveRepoPushRequest(new RepoPushRequest(
+                                    name,
+                                    parser.getAttributeValue(null, "packageName"),
+                                    parser.getAttributeValue(null, "versionCode")));
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    private void parseRepoAttributes(XmlPullParser parser) {
+        repoSigningCert = parser.getAttributeValue(null, "pubkey");
+        repoMaxAge = Utils.parseInt(parser.getAttributeValue(null, "maxage"), -1);
+        repoVersion = Utils.parseInt(parser.getAttributeValue(null, "version"), -1);
+        repoName = RepoXMLHandler.cleanWhiteSpace(parser.getAttributeValue(null, "name"));
+        repoDescription = RepoXMLHandler.cleanWhiteSpace(parser.getAttributeValue(null, "description"));
+        repoTimestamp = RepoXMLHandler.parseLong(parser.getAttributeValue(null, "timestamp"), 0);
+        repoIcon = parser.getAttributeValue(null, "icon");
+    }
+
+    private void parseApplication(XmlPullParser parser) throws IOException, XmlPullParserException {
+        App app = new App();
+        app.repoId = repo.getId();
+        app.setPackageName(parser.getAttributeValue(null, "id"));
+
+        // To appease the NON NULL constraint in the DB, see RepoXMLHandler
+        app.description = "";
+
+        List<Apk> apks = new ArrayList<>();
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_TAG) {
+            if (eventType == XmlPullParser.START_TAG) {
+                if ("package".equals(parser.getName())) {
+                    apks.add(parsePackage(parser, app));
+                } else {
+                    parseAppElement(parser, app);
+                }
+            } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of index", parser, null);
+            }
+        }
+        receiver.receiveApp(app, apks);
+    }
+
+    private void parseAppElement(XmlPullParser parser, App app) throws IOException, XmlPullParserException {
+        String name = parser.getName();
+        if ("marketvercode".equals(name)) {
+            app.suggestedVersionCode = readInt(parser, app.suggestedVersionCode, -1);
+            return;
+        }
+
+        String str = readText(parser);
+        if (str == null) {
+            return;
+        }
+        switch (name) {
+            case "name":
+                app.name = str;
+                break;
+            case "icon":
+                app.iconFromApk = str;
+                break;
+            case "description":
+                // old-style description, overwritten by <desc> in newer repos
+                app.description = "<p>" + str + "</p>";
+                break;
+            case "desc":
+                app.description = App.formatDescription(str);
+                break;
+            case "summary":
+                app.summary = str;
+                break;
+            case "license":
+                app.license = str;
+                break;
+            case "author":
+                app.authorName = str;
+                break;
+            case "email":
+                app.authorEmail = str;
+                break;
+            case "source":
+                app.sourceCode = str;
+                break;
+            case "changelog":
+                app.changelog = str;
+                break;
+            case "donate":
+                app.donate = str;
+                break;
+            case "bitcoin":
+                app.bitcoin = str;
+                break;
+            case "litecoin":
+                app.litecoin = str;
+                break;
+            case "flattr":
+                app.flattrID = str;
+                break;
+            case "liberapay":
+                app.liberapay = str;
+                break;
+            case "web":
+                app.webSite = str;
+                break;
+            case "tracker":
+                app.issueTracker = str;
+                break;
+            case "added":
+                app.added = Utils.parseDate(str, null);
+                break;
+            case "lastupdated":
+                app.lastUpdated = Utils.parseDate(str, null);
+                break;
+            case "marketversion":
+                app.suggestedVersionName = str;
+                break;
+            case "categories":
+                app.categories = Utils.parseCommaSeparatedString(str);
+                break;
+            case "antifeatures":
+                app.antiFeatures = Utils.parseCommaSeparatedString(str);
+                break;
+            case "requirements":
+                app.requirements = Utils.parseCommaSeparatedString(str);
+                break;
+        }
+    }
+
+    private Apk parsePackage(XmlPullParser parser, App app) throws IOException, XmlPullParserException {
+        Apk apk = new Apk();
+        apk.packageName = app.packageName;
+        apk.repoId = repo.getId();
+
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_TAG) {
+            if (eventType == XmlPullParser.START_TAG) {
+                parsePackageElement(parser, app, apk);
+            } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of index", parser, null);
+            }
+        }
+
+        RepoXMLHandler.addImpliedPermissions(requestedPermissionsSet, apk.targetSdkVersion);
+        apk.requestedPermissions = requestedPermissionsSet.toArray(new String[requestedPermissionsSet.size()]);
+        requestedPermissionsSet.clear();
+        return apk;
+    }
+
+    private void parsePackageElement(XmlPullParser parser, App app, Apk apk)
+            throws IOException, XmlPullParserException {
+        String name = parser.getName();
+        switch (name) {
+            case "versioncode": // ApkTable.Cols.VERSION_CODE
+                apk.versionCode = readInt(parser, apk.versionCode, -1);
+                return;
+            case ApkTable.Cols.SIZE:
+                apk.size = readInt(parser, apk.size, 0);
+                return;
+            case "sdkver": // ApkTable.Cols.MIN_SDK_VERSION
+                apk.minSdkVersion = readInt(parser, apk.minSdkVersion, Apk.SDK_VERSION_MIN_VALUE);
+                return;
+            case ApkTable.Cols.TARGET_SDK_VERSION:
+                apk.targetSdkVersion = readInt(parser, apk.targetSdkVersion, Apk.SDK_VERSION_MIN_VALUE);
+                return;
+            case "maxsdkver": // ApkTable.Cols.MAX_SDK_VERSION
+                apk.maxSdkVersion = readInt(parser, apk.maxSdkVersion, Apk.SDK_VERSION_MAX_VALUE);
+                if (apk.maxSdkVersion == 0) {
+                    // before fc0df0dcf4dd0d5f13de82d7cd9254b2b48cb62d, this could be 0
+                    apk.maxSdkVersion = Apk.SDK_VERSION_MAX_VALUE;
+                }
+                return;
+            case "uses-permission":
+                parseUsesPermission(parser, 0);
+                return;
+            case "uses-permission-sdk-23":
+                parseUsesPermission(parser, 23);
+                return;
+        }
+
+        String hashType = ApkTable.Cols.HASH.equals(name) ? parser.getAttributeValue(null, "type") : null;
+        String str = readText(parser);
+        if (str == null) {
+            return;
+        }
+        switch (name) {
+            case ApkTable.Cols.VERSION_NAME:
+                apk.versionName = str;
+                break;
+            case ApkTable.Cols.HASH:
+                if (hashType == null || "md5".equals(hashType)) {
+                    if (apk.hash == null) {
+                        apk.hash = str;
+                        apk.hashType = "sha256";
+                    }
+                } else if ("sha256".equals(hashType)) {
+                    apk.hash = str;
+                    apk.hashType = "sha256";
+                }
+                break;
+            case ApkTable.Cols.SIGNATURE:
+                apk.sig = str;
+                // the first APK in the list provides the preferred signature
+                if (app.preferredSigner == null) {
+                    app.preferredSigner = str;
+                }
+                break;
+            case ApkTable.Cols.SOURCE_NAME:
+                apk.srcname = str;
+                break;
+            case "apkname": // ApkTable.Cols.NAME
+                apk.apkName = str;
+                break;
+            case ApkTable.Cols.OBB_MAIN_FILE:
+                apk.obbMainFile = str;
+                break;
+            case ApkTable.Cols.OBB_MAIN_FILE_SHA256:
+                apk.obbMainFileSha256 = str;
+                break;
+            case ApkTable.Cols.OBB_PATCH_FILE:
+                apk.obbPatchFile = str;
+                break;
+            case ApkTable.Cols.OBB_PATCH_FILE_SHA256:
+                apk.obbPatchFileSha256 = str;
+                break;
+            case ApkTable.Cols.ADDED_DATE:
+                apk.added = Utils.parseDate(str, null);
+                break;
+            case "permissions": // together with <uses-permissions* makes ApkTable.Cols.REQUESTED_PERMISSIONS
+                String[] permissions = Utils.parseCommaSeparatedString(str);
+                if (permissions != null) {
+                    for (String permission : permissions) {
+                        requestedPermissionsSet.add(RepoXMLHandler.fdroidToAndroidPermission(permission));
+                    }
+                }
+                break;
+            case ApkTable.Cols.FEATURES:
+                apk.features = Utils.parseCommaSeparatedString(str);
+                break;
+            case ApkTable.Cols.NATIVE_CODE:
+                apk.nativecode = Utils.parseCommaSeparatedString(str);
+                break;
+        }
+    }
+
+    private void parseUsesPermission(XmlPullParser parser, int minSdk) throws IOException, XmlPullParserException {
+        String permission = parser.getAttributeValue(null, "name");
+        String maxSdkVersion = parser.getAttributeValue(null, "maxSdkVersion");
+        if (Build.VERSION.SDK_INT >= minSdk &&
+                (maxSdkVersion == null || Build.VERSION.SDK_INT <= Integer.valueOf(maxSdkVersion))) {
+            requestedPermissionsSet.add(permission);
+        } else {
+            requestedPermissionsSet.remove(permission);
+        }
+        skipToEndTag(parser, parser.next());
+    }
+
+    /**
+     * Reads the text of the current element and moves to its end tag.
+     *
+     * @return the trimmed text, or {@code null} if the element was empty
+     */
+    @Nullable
+    private static String readText(XmlPullParser parser) throws IOException, XmlPullParserException {
+        String text = null;
+        int eventType = parser.next();
+        if (eventType == XmlPullParser.TEXT) {
+            text = parser.getText();
+            eventType = parser.next();
+        }
+        skipToEndTag(parser, eventType);
+        return text == null || text.length() == 0 ? null : text.trim();
+    }
+
+    /**
+     * Reads the text of the current element as an {@code int}, decoding it straight
+     * from the parser's buffer, and moves to its end tag.
+     *
+     * @param ifEmpty   returned if the element was empty
+     * @param ifInvalid returned if the text was not a valid {@code int}
+     */
+    private int readInt(XmlPullParser parser, int ifEmpty, int ifInvalid)
+            throws IOException, XmlPullParserException {
+        int result = ifEmpty;
+        int eventType = parser.next();
+        if (eventType == XmlPullParser.TEXT) {
+            char[] chars = parser.getTextCharacters(textBounds);
+            if (textBounds[1] > 0) {
+                result = parseInt(chars, textBounds[0], textBounds[0] + textBounds[1], ifInvalid);
+            }
+            eventType = parser.next();
+        }
+        skipToEndTag(parser, eventType);
+        return result;
+    }
+
+    /**
+     * Parses the same as {@link Utils#parseInt(String, int)} would with the
+     * trimmed {@link String}, without creating it.
+     */
+    static int parseInt(char[] chars, int start, int end, int fallback) {
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return fallback;
+        }
+
+        boolean negative = chars[start] == '-';
+        if (negative || chars[start] == '+') {
+            start++;
+            if (start == end) {
+                return fallback;
+            }
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return fallback;
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return fallback;
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        return value > Integer.MAX_VALUE ? fallback : (int) value;
+    }
+
+    /**
+     * Skips anything nested in the current element, up to and including its end tag.
+     *
+     * @param eventType the event the parser is currently on, inside the element
+     */
+    private static void skipToEndTag(XmlPullParser parser, int eventType)
+            throws IOException, XmlPullParserException {
+        int depth = 0;
+        while (true) {
+            if (eventType == XmlPullParser.START_TAG) {
+                depth++;
+            } else if (eventType == XmlPullParser.END_TAG) {
+                if (depth == 0) {
+                    return;
+                }
+                depth--;
+            } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of index", parser, null);
+            }
+            eventType = parser.next();
+        }
+    }
+}
@@ -277,6 +277,20 @@ public interface Schema {
                     InstalledApp.VERSION_CODE, InstalledApp.VERSION_NAME,
                     InstalledApp.SIGNATURE, Package.PACKAGE_NAME,
             };
+
+            /**
+             * Subset of {@link Cols#ALL} with what is needed to show, update and install an app
+             * from a list.  The description, what's new, links and graphics are left out, they are
+             * only loaded by {@link org.fdroid.fdroid.views.AppDetailsActivity} when it is opened.
+             */
+            String[] LIST = {
+                    _ID, ROW_ID, REPO_ID, IS_COMPATIBLE, NAME, SUMMARY, ICON,
+                    SUGGESTED_VERSION_NAME, SUGGESTED_VERSION_CODE, ADDED, LAST_UPDATED,
+                    ANTI_FEATURES, REQUIREMENTS, ICON_URL,
+                    PREFERRED_SIGNER, AUTO_INSTALL_VERSION_CODE, IS_APK, IS_LOCALIZED, AutoInstallApk.VERSION_NAME,
+                    InstalledApp.VERSION_CODE, InstalledApp.VERSION_NAME,
+                    InstalledApp.SIGNATURE, Package.PACKAGE_NAME,
+            };
         }
     }
 
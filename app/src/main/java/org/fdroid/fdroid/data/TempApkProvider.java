@@ -59,8 +59,9 @@ public class TempApkProvider extends ApkProvider {
     public static class Helper {
 
         /**
-         * Deletes the old temporary table (if it exists). Then creates a new temporary apk provider
-         * table and populates it with all the data from the real apk provider table.
+         * Deletes the old temporary table (if it exists). Then creates a new, empty temporary apk
+         * provider table. The apks of other repos are only copied in when committing, see
+         * {@link TempAppProvider}.
          *
          * This is package local because it must be invoked after
          * {@link org.fdroid.fdroid.data.TempAppProvider.Helper#init(Context, long)}. Due to this
@@ -96,29 +97,26 @@ public class TempApkProvider extends ApkProvider {
         throw new UnsupportedOperationException("Invalid URI for apk content provider: " + uri);
     }
 
+    /**
+     * Only the other repos' apk with the highest {@code rowid} is copied, keeping its
+     * {@code rowid}. The apks of this repo then get the same {@code rowid}s here as they will
+     * get in the real table on commit, which is what their anti features are joined on.
+     */
     private void initTable(long repoIdBeingUpdated) {
         final SQLiteDatabase db = db();
-        final String memoryDbName = TempAppProvider.DB;
-        db.execSQL(DBHelper.CREATE_TABLE_APK.replaceFirst(ApkTable.NAME, memoryDbName + "." + getTableName()));
-        db.execSQL(DBHelper.CREATE_TABLE_APK_ANTI_FEATURE_JOIN.replaceFirst(Schema.ApkAntiFeatureJoinTable.NAME, memoryDbName + "." + getApkAntiFeatureJoinTableName()));
-
-        String where = ApkTable.NAME + "." + Cols.REPO_ID + " != ?";
+        db.execSQL(DBHelper.CREATE_TABLE_APK.replaceFirst(ApkTable.NAME, getTableName()));
+        db.execSQL(DBHelper.CREATE_TABLE_APK_ANTI_FEATURE_JOIN.replaceFirst(Schema.ApkAntiFeatureJoinTable.NAME, getApkAntiFeatureJoinTableName()));
+
+        String[] cols = new String[Cols.ALL_COLS.length + 1];
+        cols[0] = Cols.ROW_ID;
+        System.arraycopy(Cols.ALL_COLS, 0, cols, 1, Cols.ALL_COLS.length);
+        String where = ApkTable.NAME + "." + Cols.ROW_ID + " = " +
+                "(SELECT MAX(" + Cols.ROW_ID + ") FROM " + ApkTable.NAME + " WHERE " + Cols.REPO_ID + " != ?)";
         String[] whereArgs = new String[]{Long.toString(repoIdBeingUpdated)};
-        db.execSQL(TempAppProvider.copyData(Cols.ALL_COLS, ApkTable.NAME, memoryDbName + "." + getTableName(), where), whereArgs);
-
-        String antiFeaturesWhere =
-                Schema.ApkAntiFeatureJoinTable.NAME + "." + Schema.ApkAntiFeatureJoinTable.Cols.APK_ID + " IN " +
-                "(SELECT innerApk." + Cols.ROW_ID + " FROM " + ApkTable.NAME + " AS innerApk " +
-                "WHERE innerApk." + Cols.REPO_ID + " != ?)";
-
-        db.execSQL(TempAppProvider.copyData(
-                Schema.ApkAntiFeatureJoinTable.Cols.ALL_COLS,
-                Schema.ApkAntiFeatureJoinTable.NAME,
-                memoryDbName + "." + getApkAntiFeatureJoinTableName(),
-                antiFeaturesWhere), whereArgs);
+        db.execSQL(TempAppProvider.copyData(cols, ApkTable.NAME, getTableName(), where), whereArgs);
 
-        db.execSQL("CREATE INDEX IF NOT EXISTS " + memoryDbName + ".apk_appId on " + getTableName() + " (" + Cols.APP_ID + ");");
-        db.execSQL("CREATE INDEX IF NOT EXISTS " + memoryDbName + ".apk_compatible ON " + getTableName() + " (" + Cols.IS_COMPATIBLE + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS temp_apk_appId on " + getTableName() + " (" + Cols.APP_ID + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS temp_apk_compatible ON " + getTableName() + " (" + Cols.IS_COMPATIBLE + ");");
     }
 
 }
@@ -4,11 +4,13 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import org.fdroid.fdroid.UpdateTimings;
 import org.fdroid.fdroid.data.Schema.ApkTable;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable.Cols;
@@ -25,11 +27,6 @@ import androidx.annotation.NonNull;
 @SuppressWarnings("LineLength")
 public class TempAppProvider extends AppProvider {
 
-    /**
-     * The name of the in memory database used for updating.
-     */
-    static final String DB = "temp_update_db";
-
     private static final String PROVIDER_NAME = "TempAppProvider";
 
     static final String TABLE_TEMP_APP = "temp_" + AppMetadataTable.NAME;
@@ -92,8 +89,8 @@ public class TempAppProvider extends AppProvider {
     public static class Helper {
 
         /**
-         * Deletes the old temporary table (if it exists). Then creates a new temporary apk provider
-         * table and populates it with all the data from the real apk provider table.
+         * Deletes the old temporary tables (if they exist). Then creates new temporary app and apk
+         * provider tables, ready for the apps and apks of the repo being updated.
          */
         public static void init(Context context, long repoIdToUpdate) {
             Uri uri = getContentUri().buildUpon()
@@ -104,6 +101,20 @@ public class TempAppProvider extends AppProvider {
             TempApkProvider.Helper.init(context, repoIdToUpdate);
         }
 
+        /**
+         * @return How many apps of {@code repoId} are in the temp tables, or -1 if there are
+         * no temp tables, e.g. because the last update was committed.
+         */
+        static int countApps(Context context, long repoId) {
+            SQLiteDatabase db = DBHelper.getInstance(context).getReadableDatabase();
+            try {
+                return (int) DatabaseUtils.queryNumEntries(db, TABLE_TEMP_APP, Cols.REPO_ID + " = ?",
+                        new String[]{Long.toString(repoId)});
+            } catch (SQLiteException e) {
+                return -1;
+            }
+        }
+
         public static List<App> findByPackageNames(Context context,
                                                    List<String> packageNames, long repoId, String[] projection) {
             Uri uri = getAppsUri(packageNames, repoId);
@@ -140,8 +151,17 @@ public class TempAppProvider extends AppProvider {
                 initTable(Long.parseLong(uri.getLastPathSegment()));
                 return null;
             case CODE_COMMIT:
-                updateAllAppDetails();
-                commitTable(Long.parseLong(uri.getLastPathSegment()));
+                long repoIdToCommit = Long.parseLong(uri.getLastPathSegment());
+                UpdateTimings.begin(UpdateTimings.Phase.SUGGESTED);
+                try {
+                    copyRowsForCommit(repoIdToCommit);
+                    updatePreferredMetadata(getPackageIdsQuery(repoIdToCommit));
+                    updateCompatibleFlags();
+                    updateSuggestedFromUpstream(null);
+                } finally {
+                    UpdateTimings.end();
+                }
+                commitTable(repoIdToCommit);
                 return null;
             default:
                 return super.insert(uri, values);
@@ -167,42 +187,93 @@ public class TempAppProvider extends AppProvider {
         return super.runQuery(uri, selection, projection, true, sortOrder, 0);
     }
 
-    private void ensureTempTableDetached(SQLiteDatabase db) {
-        try {
-            // Ideally we'd ask SQLite if the temp table is attached, but that is not possible.
-            // Instead, we resort to hackery:
-            // If the first statement does not throw an exception, then the temp db is attached and the second
-            // statement will detach the database.
-            db.rawQuery("SELECT * FROM " + DB + "." + getTableName() + " WHERE 0", null);
-            db.execSQL("DETACH DATABASE " + DB);
-        } catch (SQLiteException ignored) {
-
-        }
+    /**
+     * Drops the tables used for staging an update, if they are still around from an update
+     * which was interrupted before it could commit.
+     */
+    static void dropTempTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TEMP_APP);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TEMP_CAT_JOIN);
+        db.execSQL("DROP TABLE IF EXISTS " + TempApkProvider.TABLE_TEMP_APK);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TEMP_APK_ANTI_FEATURE_JOIN);
     }
 
+    /**
+     * The staging tables live in the main database rather than an ATTACHed one, because
+     * attaching a database permanently disables write-ahead logging on the connection pool.
+     * Nobody but the update reads from them, so queries for the app lists carry on against
+     * the real tables without waiting on the update's writes.
+     * <p>
+     * None of the other repos' rows are copied here: only those sharing a package with this
+     * repo matter to the commit, and they get copied by {@link #copyRowsForCommit(long)} once
+     * the index has been read. What is copied is the other repos' row with the highest
+     * {@code rowid} in each table, so that the rows inserted during the update are numbered
+     * after every row which will still be there once the commit copies them across.
+     * <p>
+     * For the category joins that is the highest {@code rowid} of any repo: the commit only
+     * deletes the joins of apps it is replacing, so joins left behind by apps which are gone
+     * keep their {@code rowid}s, and they must not be handed out again.
+     */
     private void initTable(long repoIdBeingUpdated) {
         final SQLiteDatabase db = db();
 
         String mainApp = AppMetadataTable.NAME;
-        String tempApp = DB + "." + getTableName();
+        String tempApp = getTableName();
         String mainCat = CatJoinTable.NAME;
-        String tempCat = DB + "." + getCatJoinTableName();
+        String tempCat = getCatJoinTableName();
 
-        ensureTempTableDetached(db);
-        db.execSQL("ATTACH DATABASE ':memory:' AS " + DB);
+        dropTempTables(db);
         db.execSQL(DBHelper.CREATE_TABLE_APP_METADATA.replaceFirst(AppMetadataTable.NAME, tempApp));
         db.execSQL(DBHelper.CREATE_TABLE_CAT_JOIN.replaceFirst(CatJoinTable.NAME, tempCat));
 
-        String appWhere = mainApp + "." + Cols.REPO_ID + " != ?";
+        String appWhere = mainApp + "." + Cols.ROW_ID + " = " +
+                "(SELECT MAX(" + Cols.ROW_ID + ") FROM " + mainApp + " WHERE " + Cols.REPO_ID + " != ?)";
         String[] repoArgs = new String[]{Long.toString(repoIdBeingUpdated)};
         db.execSQL(copyData(Cols.ALL_COLS, mainApp, tempApp, appWhere), repoArgs);
 
-        // TODO: String catWhere = mainCat + "." + CatJoinTable.Cols..Cols.REPO_ID + " != ?";
-        db.execSQL(copyData(CatJoinTable.Cols.ALL_COLS, mainCat, tempCat, null));
+        String catWhere = mainCat + "." + CatJoinTable.Cols.ROW_ID + " = " +
+                "(SELECT MAX(" + CatJoinTable.Cols.ROW_ID + ") FROM " + mainCat + ")";
+        db.execSQL(copyData(CatJoinTable.Cols.ALL_COLS, mainCat, tempCat, catWhere));
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS temp_app_id ON " + getTableName() + " (" + Cols.PACKAGE_ID + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS temp_app_upstreamVercode ON " + getTableName() + " (" + Cols.SUGGESTED_VERSION_CODE + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS temp_app_compatible ON " + getTableName() + " (" + Cols.IS_COMPATIBLE + ");");
+    }
+
+    /**
+     * The packages whose preferred metadata and suggested versions can change by committing
+     * this repo: those it has now, and those it had before the update.
+     */
+    private String getPackageIdsQuery(long repoId) {
+        return "SELECT " + Cols.PACKAGE_ID + " FROM " + getTableName() + " WHERE " + Cols.REPO_ID + " = " + repoId +
+                " UNION SELECT " + Cols.PACKAGE_ID + " FROM " + AppMetadataTable.NAME + " WHERE " + Cols.REPO_ID + " = " + repoId;
+    }
+
+    /**
+     * Replaces the placeholder rows copied in {@link #initTable(long)} with the other repos'
+     * apps and apks for the packages in {@link #getPackageIdsQuery(long)}, which is all that
+     * {@link #updatePreferredMetadata(String)} and {@link #updateSuggestedFromUpstream(String)}
+     * need to look at. The category joins of other repos are not needed at all.
+     */
+    private void copyRowsForCommit(long repoIdToCommit) {
+        final SQLiteDatabase db = db();
+
+        final String tempApp = getTableName();
+        final String tempCat = getCatJoinTableName();
+        final String tempApk = getApkTableName();
+        final String[] repoArgs = new String[]{Long.toString(repoIdToCommit)};
+
+        db.execSQL("DELETE FROM " + tempApp + " WHERE " + Cols.REPO_ID + " != ?", repoArgs);
+        db.execSQL("DELETE FROM " + tempApk + " WHERE " + ApkTable.Cols.REPO_ID + " != ?", repoArgs);
+        db.execSQL("DELETE FROM " + tempCat + " WHERE " + CatJoinTable.Cols.APP_METADATA_ID + " NOT IN " +
+                "(SELECT " + Cols.ROW_ID + " FROM " + tempApp + ")");
+
+        String appWhere = Cols.REPO_ID + " != ? AND " + Cols.PACKAGE_ID + " IN (" + getPackageIdsQuery(repoIdToCommit) + ")";
+        db.execSQL(copyData(Cols.ALL_COLS, AppMetadataTable.NAME, tempApp, appWhere), repoArgs);
 
-        db.execSQL("CREATE INDEX IF NOT EXISTS " + DB + ".app_id ON " + getTableName() + " (" + Cols.PACKAGE_ID + ");");
-        db.execSQL("CREATE INDEX IF NOT EXISTS " + DB + ".app_upstreamVercode ON " + getTableName() + " (" + Cols.SUGGESTED_VERSION_CODE + ");");
-        db.execSQL("CREATE INDEX IF NOT EXISTS " + DB + ".app_compatible ON " + getTableName() + " (" + Cols.IS_COMPATIBLE + ");");
+        String apkWhere = ApkTable.Cols.APP_ID + " IN " +
+                "(SELECT " + Cols.ROW_ID + " FROM " + tempApp + " WHERE " + Cols.REPO_ID + " != ?)";
+        db.execSQL(copyData(ApkTable.Cols.ALL_COLS, ApkTable.NAME, tempApk, apkWhere), repoArgs);
     }
 
     /**
@@ -221,12 +292,13 @@ public class TempAppProvider extends AppProvider {
     private void commitTable(long repoIdToCommit) {
         final SQLiteDatabase db = db();
         try {
-            db.beginTransaction();
+            // Non-exclusive so that, with write-ahead logging, readers are never held up.
+            db.beginTransactionNonExclusive();
 
-            final String tempApp = DB + "." + TABLE_TEMP_APP;
-            final String tempApk = DB + "." + TempApkProvider.TABLE_TEMP_APK;
-            final String tempCatJoin = DB + "." + TABLE_TEMP_CAT_JOIN;
-            final String tempAntiFeatureJoin = DB + "." + TABLE_TEMP_APK_ANTI_FEATURE_JOIN;
+            final String tempApp = TABLE_TEMP_APP;
+            final String tempApk = TempApkProvider.TABLE_TEMP_APK;
+            final String tempCatJoin = TABLE_TEMP_CAT_JOIN;
+            final String tempAntiFeatureJoin = TABLE_TEMP_APK_ANTI_FEATURE_JOIN;
 
             final String[] repoArgs = new String[]{Long.toString(repoIdToCommit)};
 
@@ -251,12 +323,17 @@ public class TempAppProvider extends AppProvider {
 
             db.setTransactionSuccessful();
 
-            getContext().getContentResolver().notifyChange(AppProvider.getContentUri(), null);
-            getContext().getContentResolver().notifyChange(ApkProvider.getContentUri(), null);
-            getContext().getContentResolver().notifyChange(CategoryProvider.getContentUri(), null);
+            UpdateTimings.begin(UpdateTimings.Phase.NOTIFY);
+            try {
+                getContext().getContentResolver().notifyChange(AppProvider.getContentUri(), null);
+                getContext().getContentResolver().notifyChange(ApkProvider.getContentUri(), null);
+                getContext().getContentResolver().notifyChange(CategoryProvider.getContentUri(), null);
+            } finally {
+                UpdateTimings.end();
+            }
         } finally {
             db.endTransaction();
-            db.execSQL("DETACH DATABASE " + DB); // Can't be done in a transaction.
+            dropTempTables(db);
         }
     }
 
@@ -23,19 +23,27 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
 
 import org.apache.commons.io.FileUtils;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Apk;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.InstalledApp;
+import org.fdroid.fdroid.data.InstalledAppProvider;
 import org.fdroid.fdroid.data.SanitizedFile;
 
 import java.io.File;
 import java.io.IOException;
 
+import androidx.annotation.Nullable;
+
 public class ApkCache {
 
+    private static final String TAG = "ApkCache";
+
     private static final String CACHE_DIR = "apks";
 
     /**
@@ -140,6 +148,65 @@ public class ApkCache {
                 Utils.isFileMatchingHash(apkFile, apkToCheck.hash, apkToCheck.hashType);
     }
 
+    /**
+     * Copies the exact same APK, going by its hash, to {@code apkFile} if it is already on
+     * this device, so it does not need to be downloaded.  APKs are cached per repo, so this
+     * mostly helps with swap, where the peer often offers what was already downloaded from
+     * another repo, or what is already installed.
+     *
+     * @return whether {@code apkFile} now holds the APK
+     * @see #findLocalCopy(Context, Apk, File)
+     */
+    public static boolean copyFromLocalCopy(Context context, Apk apk, File apkFile) {
+        File localCopy = findLocalCopy(context, apk, apkFile);
+        if (localCopy == null) {
+            return false;
+        }
+        try {
+            FileUtils.copyFile(localCopy, apkFile);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not copy " + localCopy + " to " + apkFile, e);
+            FileUtils.deleteQuietly(apkFile);
+            return false;
+        }
+    }
+
+    /**
+     * Looks for {@code apk} among the APKs cached from other repos, which have the same
+     * file name, and then the installed APK, whose hash is already known from
+     * {@link InstalledAppProvider}.
+     */
+    @Nullable
+    static File findLocalCopy(Context context, Apk apk, File apkFile) {
+        if (TextUtils.isEmpty(apk.hash) || TextUtils.isEmpty(apk.hashType)) {
+            return null;
+        }
+
+        File[] repoDirs = getApkCacheDir(context).listFiles();
+        if (repoDirs != null) {
+            for (File repoDir : repoDirs) {
+                File cachedFile = new File(repoDir, apkFile.getName());
+                if (!cachedFile.equals(apkFile) && cachedFile.isFile() && apkIsCached(cachedFile, apk)) {
+                    return cachedFile;
+                }
+            }
+        }
+
+        InstalledApp installedApp = InstalledAppProvider.Helper.findByPackageName(context, apk.packageName);
+        if (installedApp != null && apk.hash.equalsIgnoreCase(installedApp.getHash())
+                && apk.hashType.equalsIgnoreCase(installedApp.getHashType())) {
+            PackageInfo packageInfo = Utils.getPackageInfo(context, apk.packageName);
+            if (packageInfo != null) {
+                File installedFile = new File(packageInfo.applicationInfo.publicSourceDir);
+                if (installedFile.isFile()) {
+                    return installedFile;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * This location is only for caching, do not install directly from this location
      * because if the file is on the External Storage, any other app could swap out
@@ -28,6 +28,9 @@ import org.fdroid.fdroid.net.DownloaderService;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
@@ -105,6 +108,11 @@ public class InstallManagerService extends Service {
     private AppUpdateStatusManager appUpdateStatusManager;
     private boolean running = false;
 
+    /**
+     * The APKs being looked for on this device, removed when they are canceled.
+     */
+    private final Set<String> copyingFromLocalCopy = Collections.synchronizedSet(new HashSet<String>());
+
     /**
      * This service does not use binding, so no need to implement this method
      */
@@ -161,6 +169,7 @@ public class InstallManagerService extends Service {
         String action = intent.getAction();
 
         if (ACTION_CANCEL.equals(action)) {
+            copyingFromLocalCopy.remove(canonicalUrl);
             DownloaderService.cancel(this, canonicalUrl);
             Apk apk = appUpdateStatusManager.getApk(canonicalUrl);
             if (apk != null) {
@@ -218,8 +227,7 @@ public class InstallManagerService extends Service {
         File apkFilePath = ApkCache.getApkDownloadPath(this, apk.getCanonicalUrl());
         long apkFileSize = apkFilePath.length();
         if (!apkFilePath.exists() || apkFileSize < apk.size) {
-            Utils.debugLog(TAG, "download " + canonicalUrl + " " + apkFilePath);
-            DownloaderService.queueUsingRandomMirror(this, apk.repoId, canonicalUrl);
+            copyFromLocalCopyOrDownload(intent.getData(), apk, apkFilePath);
         } else if (ApkCache.apkIsCached(apkFilePath, apk)) {
             Utils.debugLog(TAG, "skip download, we have it, straight to install " + canonicalUrl + " " + apkFilePath);
             sendBroadcast(intent.getData(), Downloader.ACTION_STARTED, apkFilePath);
@@ -233,6 +241,37 @@ public class InstallManagerService extends Service {
         return START_REDELIVER_INTENT; // if killed before completion, retry Intent
     }
 
+    /**
+     * Looking for the same APK elsewhere on this device can mean hashing other APKs,
+     * and copying one can take a while, so that happens on its own thread, which then
+     * queues the download if there is no copy.
+     */
+    private void copyFromLocalCopyOrDownload(final Uri canonicalUri, final Apk apk, final File apkFilePath) {
+        final String canonicalUrl = canonicalUri.toString();
+        copyingFromLocalCopy.add(canonicalUrl);
+        new Thread() {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                boolean copied = ApkCache.copyFromLocalCopy(InstallManagerService.this, apk, apkFilePath);
+                if (!copyingFromLocalCopy.remove(canonicalUrl)) {
+                    Utils.debugLog(TAG, "canceled while looking for a local copy " + canonicalUrl);
+                    if (copied) {
+                        FileUtils.deleteQuietly(apkFilePath);
+                    }
+                    sendBroadcast(canonicalUri, Downloader.ACTION_INTERRUPTED, apkFilePath);
+                } else if (copied) {
+                    Utils.debugLog(TAG, "skip download, same APK already on this device " + canonicalUrl);
+                    sendBroadcast(canonicalUri, Downloader.ACTION_STARTED, apkFilePath);
+                    sendBroadcast(canonicalUri, Downloader.ACTION_COMPLETE, apkFilePath);
+                } else {
+                    Utils.debugLog(TAG, "download " + canonicalUrl + " " + apkFilePath);
+                    DownloaderService.queueUsingRandomMirror(InstallManagerService.this, apk.repoId, canonicalUrl);
+                }
+            }
+        }.start();
+    }
+
     private void sendBroadcast(Uri uri, String action, File file) {
         Intent intent = new Intent(action);
         intent.setData(uri);
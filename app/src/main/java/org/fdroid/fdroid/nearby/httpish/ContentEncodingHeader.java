@@ -0,0 +1,14 @@
+package org.fdroid.fdroid.nearby.httpish;
+
+public class ContentEncodingHeader extends Header {
+
+    @Override
+    public String getName() {
+        return "content-encoding";
+    }
+
+    public void handle(FileDetails details, String value) {
+        details.setContentEncoding(value);
+    }
+
+}
@@ -3,7 +3,8 @@ package org.fdroid.fdroid.nearby.httpish;
 public class FileDetails {
 
     private String cacheTag;
-    private long fileSize;
+    private long fileSize = -1;
+    private String contentEncoding;
 
     public String getCacheTag() {
         return cacheTag;
@@ -13,10 +14,22 @@ public class FileDetails {
         return fileSize;
     }
 
-    void setFileSize(int fileSize) {
+    void setFileSize(long fileSize) {
         this.fileSize = fileSize;
     }
 
+    /**
+     * @return How the body was encoded for the transfer, e.g. {@code gzip}, or {@code null}
+     * if it was sent as it is.  {@link #getFileSize()} is the size of the encoded body.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
     void setCacheTag(String cacheTag) {
         this.cacheTag = cacheTag;
     }
@@ -7,6 +7,7 @@ public abstract class Header {
     private static final Header[] VALID_HEADERS = {
             new ContentLengthHeader(),
             new ETagHeader(),
+            new ContentEncodingHeader(),
     };
 
     protected abstract String getName();
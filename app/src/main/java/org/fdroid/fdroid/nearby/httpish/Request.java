@@ -6,8 +6,10 @@ import org.fdroid.fdroid.nearby.BluetoothConnection;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -21,33 +23,64 @@ public final class Request {
         String GET = "GET";
     }
 
+    /**
+     * Lines longer than this are not part of a valid request or response.
+     */
+    private static final int MAX_LINE_LENGTH = 8192;
+
     private String method;
     private String path;
-    private Map<String, String> headers;
+    private Map<String, String> headers = new HashMap<>();
 
-    private final BluetoothConnection connection;
     private final Writer output;
     private final InputStream input;
 
-    private Request(String method, String path, BluetoothConnection connection) {
+    /**
+     * Works on the plain streams of the connection, so the protocol can be used, and
+     * tested, without a {@link BluetoothConnection}.  {@code input} should be buffered,
+     * as the lines are read from it byte by byte.
+     */
+    private Request(String method, String path, InputStream input, OutputStream output) {
         this.method = method;
         this.path = path;
-        this.connection = connection;
-
-        output = new OutputStreamWriter(connection.getOutputStream());
-        input = connection.getInputStream();
+        this.input = input;
+        this.output = output == null ? null : new OutputStreamWriter(output, Charset.forName("UTF-8"));
     }
 
     public static Request createHEAD(String path, BluetoothConnection connection) {
-        return new Request(Methods.HEAD, path, connection);
+        return createHEAD(path, connection.getInputStream(), connection.getOutputStream());
+    }
+
+    public static Request createHEAD(String path, InputStream input, OutputStream output) {
+        return new Request(Methods.HEAD, path, input, output);
     }
 
     public static Request createGET(String path, BluetoothConnection connection) {
-        return new Request(Methods.GET, path, connection);
+        return createGET(path, connection.getInputStream(), connection.getOutputStream());
+    }
+
+    public static Request createGET(String path, InputStream input, OutputStream output) {
+        return new Request(Methods.GET, path, input, output);
     }
 
     public String getHeaderValue(String header) {
-        return headers.containsKey(header) ? headers.get(header) : null;
+        return headers.get(header.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return The headers that came with a request received by {@link #listenForRequest(InputStream)},
+     * with lower case names.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Adds a header to send with this request, e.g. {@code If-None-Match}.
+     */
+    public Request addHeader(String header, String value) {
+        headers.put(header, value);
+        return this;
     }
 
     public Response send() throws IOException {
@@ -57,9 +90,14 @@ public final class Request {
         output.write(method);
         output.write(' ');
         output.write(path);
-
-        output.write("\n\n");
-
+        output.write('\n');
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            output.write(entry.getKey());
+            output.write(": ");
+            output.write(entry.getValue());
+            output.write('\n');
+        }
+        output.write('\n');
         output.flush();
 
         Utils.debugLog(TAG, "Finished sending request, now attempting to read response status code...");
@@ -68,7 +106,7 @@ public final class Request {
 
         Utils.debugLog(TAG, "Read response code " + responseCode + " from server, now reading headers...");
 
-        Map<String, String> headers = readHeaders();
+        Map<String, String> headers = readHeaders(input);
 
         Utils.debugLog(TAG, "Read " + headers.size() + " headers");
 
@@ -79,7 +117,7 @@ public final class Request {
         }
         Utils.debugLog(TAG, "Request was a " + Methods.GET
                 + " request, so including content stream in response...");
-        return new Response(responseCode, headers, connection.getInputStream());
+        return new Response(responseCode, headers, input);
     }
 
     /**
@@ -91,9 +129,13 @@ public final class Request {
      */
     private boolean listen() throws IOException {
 
-        String requestLine = readLine();
+        String requestLine = readLine(input);
+        while (requestLine != null && requestLine.trim().length() == 0) {
+            // skip blank lines between requests
+            requestLine = readLine(input);
+        }
 
-        if (requestLine == null || requestLine.trim().length() == 0) {
+        if (requestLine == null) {
             return false;
         }
 
@@ -106,15 +148,24 @@ public final class Request {
 
         method = parts[0].toUpperCase(Locale.ENGLISH);
         path = parts[1];
-        headers = readHeaders();
+        headers = readHeaders(input);
         return true;
     }
 
     /**
      * This is a blocking method, which will wait until a full Request is received.
+     *
+     * @return The request, or {@code null} if the client closed the connection.
      */
     public static Request listenForRequest(BluetoothConnection connection) throws IOException {
-        Request request = new Request("", "", connection);
+        return listenForRequest(connection.getInputStream());
+    }
+
+    /**
+     * @see #listenForRequest(BluetoothConnection)
+     */
+    public static Request listenForRequest(InputStream input) throws IOException {
+        Request request = new Request("", "", input, null);
         return request.listen() ? request : null;
     }
 
@@ -126,71 +177,67 @@ public final class Request {
      */
     private int readResponseCode() throws IOException {
 
-        String line = readLine();
+        String line = readLine(input);
+        if (line == null) {
+            throw new IOException("Connection closed before the response was received");
+        }
 
-        // TODO: Error handling
         int firstSpace = line.indexOf(' ');
         int secondSpace = line.indexOf(' ', firstSpace + 1);
+        if (firstSpace < 0 || secondSpace < 0) {
+            throw new IOException("Invalid status line: " + line);
+        }
 
-        String status = line.substring(firstSpace + 1, secondSpace);
-        return Integer.parseInt(status);
+        try {
+            return Integer.parseInt(line.substring(firstSpace + 1, secondSpace));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + line, e);
+        }
     }
 
-    private String readLine() throws IOException {
+    /**
+     * Blocks until a whole line has arrived, rather than polling for it, so each request and
+     * response costs no more than the round trip.  {@link BluetoothConnection} buffers the
+     * input, so reading byte by byte does not go to the socket each time.  Both {@code \n}
+     * and {@code \r\n} end a line.
+     *
+     * @return The line without its line ending, or {@code null} if the connection was closed.
+     */
+    static String readLine(InputStream input) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        String line = null;
-
-        while (line == null) {
-
-            while (input.available() > 0) {
-
-                int b = input.read();
-
-                if (((char) b) == '\n') {
-                    if (baos.size() > 0) {
-                        line = new String(baos.toByteArray());
-                    }
-
-                    return line;
-                }
-
-                baos.write(b);
+        while (true) {
+            int b = input.read();
+            if (b == -1) {
+                return baos.size() > 0 ? baos.toString("UTF-8") : null;
             }
-
-            try {
-                Thread.sleep(100);
-            } catch (Exception e) {
-                // ignore
+            if (b == '\n') {
+                break;
+            }
+            if (baos.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes");
             }
+            baos.write(b);
         }
-
-        return line;
+        String line = baos.toString("UTF-8");
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
     }
 
     /**
      * Subsequent lines (after the status line) represent the headers, which are case
      * insensitive and may be multi-line. We don't deal with multi-line headers in
-     * our HTTP-ish implementation.
+     * our HTTP-ish implementation.  The headers end with an empty line, after which
+     * the body starts.  Header names are stored in lower case.
      */
-    private Map<String, String> readHeaders() throws IOException {
+    static Map<String, String> readHeaders(InputStream input) throws IOException {
         Map<String, String> headers = new HashMap<>();
-        String responseLine = readLine();
-        while (responseLine != null) {
-
-            // TODO: Error handling
-            String[] parts = responseLine.split(":");
-            if (parts.length > 1) {
-                String header = parts[0].trim();
-                String value = parts[1].trim();
-                headers.put(header, value);
+        String line = readLine(input);
+        while (line != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                String header = line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+                headers.put(header, line.substring(colon + 1).trim());
             }
-
-            if (input.available() > 0) {
-                responseLine = readLine();
-            } else {
-                break;
-            }
-
+            line = readLine(input);
         }
         return headers;
     }
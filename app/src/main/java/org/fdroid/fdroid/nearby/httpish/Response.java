@@ -8,10 +8,12 @@ import org.fdroid.fdroid.nearby.BluetoothConnection;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -20,6 +22,11 @@ public class Response {
 
     private static final String TAG = "bluetooth.Response";
 
+    /**
+     * Big enough that sending a file over Bluetooth is not held up by the copying.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
     private final int statusCode;
     private final Map<String, String> headers;
     private final InputStream contentStream;
@@ -45,7 +52,9 @@ public class Response {
         this.headers = new HashMap<>();
         this.headers.put("Content-Type", mimeType);
         try {
-            this.contentStream = new ByteArrayInputStream(content.getBytes("UTF-8"));
+            byte[] bytes = content.getBytes("UTF-8");
+            this.headers.put("Content-Length", Integer.toString(bytes.length));
+            this.contentStream = new ByteArrayInputStream(bytes);
         } catch (UnsupportedEncodingException e) {
             // Not quite sure what to do in the case of a phone not supporting UTF-8, so lets
             // throw a runtime exception and hope that we get good bug reports if this ever happens.
@@ -69,12 +78,12 @@ public class Response {
         return statusCode;
     }
 
-    public int getFileSize() {
+    public long getFileSize() {
         if (headers != null) {
             for (Map.Entry<String, String> entry : headers.entrySet()) {
                 if ("content-length".equals(entry.getKey().toLowerCase(Locale.ENGLISH))) {
                     try {
-                        return Integer.parseInt(entry.getValue());
+                        return Long.parseLong(entry.getValue());
                     } catch (NumberFormatException e) {
                         return -1;
                     }
@@ -96,6 +105,10 @@ public class Response {
         return details;
     }
 
+    public boolean hasContentStream() {
+        return contentStream != null;
+    }
+
     public InputStream toContentStream() throws UnsupportedOperationException {
         if (contentStream == null) {
             throw new UnsupportedOperationException("This kind of response doesn't have a content stream."
@@ -105,11 +118,15 @@ public class Response {
     }
 
     public void send(BluetoothConnection connection) throws IOException {
+        send(connection.getOutputStream());
+    }
+
+    public void send(OutputStream outputStream) throws IOException {
 
         Utils.debugLog(TAG, "Sending Bluetooth HTTP-ish response...");
 
-        Writer output = new OutputStreamWriter(connection.getOutputStream());
-        output.write("HTTP(ish)/0.1 200 OK\n");
+        Writer output = new OutputStreamWriter(outputStream, Charset.forName("UTF-8"));
+        output.write("HTTP(ish)/0.1 " + statusCode + " " + getReasonPhrase(statusCode) + "\n");
 
         for (Map.Entry<String, String> entry : headers.entrySet()) {
             output.write(entry.getKey());
@@ -122,19 +139,42 @@ public class Response {
         output.flush();
 
         if (contentStream != null) {
-            Utils.copy(contentStream, connection.getOutputStream());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = contentStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
         }
+        outputStream.flush();
+    }
 
-        output.flush();
-
+    /**
+     * Only used to make the status line readable, clients go by the status code.
+     */
+    private static String getReasonPhrase(int statusCode) {
+        switch (statusCode) {
+            case HttpURLConnection.HTTP_OK:
+                return "OK";
+            case HttpURLConnection.HTTP_PARTIAL:
+                return "Partial Content";
+            case HttpURLConnection.HTTP_NOT_MODIFIED:
+                return "Not Modified";
+            case HttpURLConnection.HTTP_FORBIDDEN:
+                return "Forbidden";
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return "Not Found";
+            default:
+                return statusCode < HttpURLConnection.HTTP_BAD_REQUEST ? "OK" : "Error";
+        }
     }
 
     public static class Builder {
 
         private InputStream contentStream;
         private int statusCode = HttpURLConnection.HTTP_OK;
-        private int fileSize = -1;
+        private long fileSize = -1;
         private String etag;
+        private String contentEncoding;
 
         public Builder() {
         }
@@ -148,7 +188,7 @@ public class Response {
             return this;
         }
 
-        public Builder setFileSize(int fileSize) {
+        public Builder setFileSize(long fileSize) {
             this.fileSize = fileSize;
             return this;
         }
@@ -158,18 +198,27 @@ public class Response {
             return this;
         }
 
+        public Builder setContentEncoding(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+            return this;
+        }
+
         public Response build() {
 
             Map<String, String> headers = new HashMap<>(3);
 
-            if (fileSize > 0) {
-                headers.put("Content-Length", Integer.toString(fileSize));
+            if (fileSize >= 0) {
+                headers.put("Content-Length", Long.toString(fileSize));
             }
 
             if (etag != null) {
                 headers.put("ETag", etag);
             }
 
+            if (contentEncoding != null) {
+                headers.put("Content-Encoding", contentEncoding);
+            }
+
             return new Response(statusCode, headers, contentStream);
         }
 
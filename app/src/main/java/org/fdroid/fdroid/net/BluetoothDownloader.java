@@ -1,9 +1,12 @@
 package org.fdroid.fdroid.net;
 
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Log;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.nearby.BluetoothClient;
 import org.fdroid.fdroid.nearby.BluetoothConnection;
@@ -11,10 +14,13 @@ import org.fdroid.fdroid.nearby.httpish.FileDetails;
 import org.fdroid.fdroid.nearby.httpish.Request;
 import org.fdroid.fdroid.nearby.httpish.Response;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import androidx.annotation.Nullable;
 
@@ -28,9 +34,14 @@ public class BluetoothDownloader extends Downloader {
 
     public static final String SCHEME = "bluetooth";
 
-    private final BluetoothConnection connection;
+    private static final String GZIP = "gzip";
+
+    private final BluetoothClient client;
+    private BluetoothConnection connection;
     private FileDetails fileDetails;
     private final String sourcePath;
+    private CountingInputStream contentStream;
+    private boolean newFileAvailableOnServer;
 
     public static boolean isBluetoothUri(Uri uri) {
         return SCHEME.equals(uri.getScheme())
@@ -38,16 +49,45 @@ public class BluetoothDownloader extends Downloader {
     }
 
     public BluetoothDownloader(Uri uri, File destFile) throws IOException {
+        this(uri, destFile, new BluetoothClient(uri.getHost().replace("-", ":")));
+    }
+
+    private BluetoothDownloader(Uri uri, File destFile, BluetoothClient client) throws IOException {
+        this(uri, destFile, client, client.openConnection());
+    }
+
+    BluetoothDownloader(Uri uri, File destFile, BluetoothClient client, BluetoothConnection connection) {
         super(uri, destFile);
-        String macAddress = uri.getHost().replace("-", ":");
-        this.connection = new BluetoothClient(macAddress).openConnection();
+        this.client = client;
+        this.connection = connection;
         this.sourcePath = uri.getPath();
     }
 
+    /**
+     * Sends a single {@code GET}, which also carries the {@code If-None-Match} check
+     * that would otherwise need a {@code HEAD} first.
+     */
+    private Response sendGet() throws IOException {
+        Request request = Request.createGET(sourcePath, connection);
+        if (!TextUtils.isEmpty(cacheTag)) {
+            request.addHeader("If-None-Match", cacheTag);
+        }
+        request.addHeader("Accept-Encoding", GZIP);
+        return request.send();
+    }
+
     @Override
     protected InputStream getDownloadersInputStream() throws IOException {
-        Request request = Request.createGET(sourcePath, connection);
-        Response response = request.send();
+        Response response;
+        try {
+            response = sendGet();
+        } catch (IOException e) {
+            // the peer might have closed the connection while it was idle
+            Utils.debugLog(TAG, "Retrying on a new Bluetooth connection: " + e.getMessage());
+            connection.closeQuietly();
+            connection = client.openNewConnection();
+            response = sendGet();
+        }
         fileDetails = response.toFileDetails();
 
         // TODO: Manage the dependency which includes this class better?
@@ -60,8 +100,34 @@ public class BluetoothDownloader extends Downloader {
         // to us).
         BoundedInputStream stream = new BoundedInputStream(response.toContentStream(), fileDetails.getFileSize());
         stream.setPropagateClose(false);
+        contentStream = new CountingInputStream(stream);
+
+        if (fileDetails.getFileSize() < 0) {
+            // Peers from before the keep-alive rewrite answer every request with 200, and
+            // send the text of a 404 without a Content-Length, ending it by closing the
+            // connection, which they never do.  Current peers always send the length.
+            Utils.debugLog(TAG, "No Content-Length for " + sourcePath + ", treating it as not found");
+            notFound = true;
+            newFileAvailableOnServer = false;
+            return new ByteArrayInputStream(new byte[0]);
+        }
 
-        return stream;
+        int statusCode = response.getStatusCode();
+        if (statusCode == HttpURLConnection.HTTP_NOT_FOUND || statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            // e.g. index-v1.jar from a swap peer which only has index.jar
+            notFound = statusCode == HttpURLConnection.HTTP_NOT_FOUND;
+            newFileAvailableOnServer = false;
+            if (fileDetails.getFileSize() > 0) {
+                IOUtils.skip(contentStream, fileDetails.getFileSize());
+            }
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        newFileAvailableOnServer = true;
+        cacheTag = fileDetails.getCacheTag();
+        if (GZIP.equals(fileDetails.getContentEncoding())) {
+            return new GZIPInputStream(contentStream);
+        }
+        return contentStream;
     }
 
     /**
@@ -82,27 +148,51 @@ public class BluetoothDownloader extends Downloader {
 
     @Override
     public boolean hasChanged() {
+        if (contentStream != null) {
+            return newFileAvailableOnServer;
+        }
         FileDetails details = getFileDetails();
-        return details == null || details.getCacheTag() == null || details.getCacheTag().equals(getCacheTag());
+        return details == null || details.getCacheTag() == null || !details.getCacheTag().equals(getCacheTag());
     }
 
+    /**
+     * @return The size of the file, or {@code -1} if it is not known because it was
+     * compressed for the transfer.
+     */
     @Override
     public long totalDownloadSize() {
         FileDetails details = getFileDetails();
-        return details != null ? details.getFileSize() : -1;
+        if (details == null || details.getContentEncoding() != null) {
+            return -1;
+        }
+        return details.getFileSize();
     }
 
     @Override
     public void download() throws IOException, InterruptedException {
-        downloadFromStream(false);
-        connection.closeQuietly();
+        try {
+            downloadFromStream(false);
+        } finally {
+            close();
+        }
     }
 
+    /**
+     * The connection is kept for the next request to the same peer if the whole
+     * response was read, otherwise the rest of the response would be in the way.
+     */
     @Override
     protected void close() {
-        if (connection != null) {
+        if (connection == null) {
+            return;
+        }
+        if (contentStream != null && fileDetails.getFileSize() >= 0
+                && contentStream.getByteCount() == fileDetails.getFileSize()) {
+            client.releaseConnection(connection);
+        } else {
             connection.closeQuietly();
         }
+        connection = null;
     }
 
 }
@@ -29,6 +29,7 @@ import android.util.Base64;
 
 import org.apache.commons.io.FileUtils;
 import org.fdroid.fdroid.FDroidApp;
+import org.fdroid.fdroid.UpdateTimings;
 import org.fdroid.fdroid.Utils;
 
 import java.io.BufferedInputStream;
@@ -40,6 +41,7 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.Locale;
 
 import info.guardianproject.netcipher.NetCipher;
 
@@ -135,8 +137,14 @@ public class HttpDownloader extends Downloader {
         tmpConn.setRequestMethod("HEAD");
 
         int contentLength = -1;
-        int statusCode = tmpConn.getResponseCode();
-        tmpConn.disconnect();
+        int statusCode;
+        UpdateTimings.begin(UpdateTimings.Phase.HEAD);
+        try {
+            statusCode = tmpConn.getResponseCode();
+            tmpConn.disconnect();
+        } finally {
+            UpdateTimings.end();
+        }
         newFileAvailableOnServer = false;
         switch (statusCode) {
             case HttpURLConnection.HTTP_OK:
@@ -196,6 +204,16 @@ public class HttpDownloader extends Downloader {
                 && FDroidApp.subnetInfo.isInRange(host); // on the same subnet as we are
     }
 
+    /**
+     * Index JARs and APKs are ZIP files, which gzip cannot make any smaller.  Letting the
+     * server gzip them anyway only costs CPU on both ends, and loses the {@code Content-Length}
+     * header which the progress reporting and resuming of downloads rely on.
+     */
+    static boolean isAlreadyCompressed(URL url) {
+        String path = url.getPath().toLowerCase(Locale.ENGLISH);
+        return path.endsWith(".jar") || path.endsWith(".apk") || path.endsWith(".zip");
+    }
+
     HttpURLConnection getConnection() throws SocketTimeoutException, IOException {
         HttpURLConnection connection;
         if (isSwapUrl(sourceUrl)) {
@@ -214,7 +232,8 @@ public class HttpDownloader extends Downloader {
         connection.setConnectTimeout(getTimeout());
         connection.setReadTimeout(getTimeout());
 
-        if (Build.VERSION.SDK_INT < 19) { // gzip encoding can be troublesome on old Androids
+        if (Build.VERSION.SDK_INT < 19 // gzip encoding can be troublesome on old Androids
+                || isAlreadyCompressed(sourceUrl)) {
             connection.setRequestProperty("Accept-Encoding", "identity");
         }
 
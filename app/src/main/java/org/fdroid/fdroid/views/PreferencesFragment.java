@@ -48,7 +48,9 @@ import org.fdroid.fdroid.Languages;
 import org.fdroid.fdroid.Preferences;
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.UpdateService;
+import org.fdroid.fdroid.UpdateTimings;
 import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.QueryStats;
 import org.fdroid.fdroid.data.RepoProvider;
 import org.fdroid.fdroid.installer.InstallHistoryService;
 import org.fdroid.fdroid.installer.PrivilegedInstaller;
@@ -140,6 +142,16 @@ public class PreferencesFragment extends PreferenceFragmentCompat
             aboutPreference.setOnPreferenceClickListener(aboutPrefClickedListener);
         }
 
+        Preference shareQueryStatsPreference = findPreference("shareQueryStats");
+        if (shareQueryStatsPreference != null) {
+            shareQueryStatsPreference.setOnPreferenceClickListener(shareQueryStatsClickedListener);
+        }
+
+        Preference shareUpdateTimingsPreference = findPreference("shareUpdateTimings");
+        if (shareUpdateTimingsPreference != null) {
+            shareUpdateTimingsPreference.setOnPreferenceClickListener(shareUpdateTimingsClickedListener);
+        }
+
         keepInstallHistoryPref = (CheckBoxPreference) findPreference(Preferences.PREF_KEEP_INSTALL_HISTORY);
         sendToFDroidMetricsPref = findPreference(Preferences.PREF_SEND_TO_FDROID_METRICS);
         sendToFDroidMetricsPref.setEnabled(keepInstallHistoryPref.isChecked());
@@ -452,6 +464,32 @@ public class PreferencesFragment extends PreferenceFragmentCompat
                 }
             };
 
+    private final Preference.OnPreferenceClickListener shareQueryStatsClickedListener =
+            new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    Intent intent = new Intent(Intent.ACTION_SEND);
+                    intent.setType("text/plain");
+                    intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.share_query_stats));
+                    intent.putExtra(Intent.EXTRA_TEXT, QueryStats.getReport());
+                    startActivity(Intent.createChooser(intent, getString(R.string.share_query_stats)));
+                    return true;
+                }
+            };
+
+    private final Preference.OnPreferenceClickListener shareUpdateTimingsClickedListener =
+            new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    Intent intent = new Intent(Intent.ACTION_SEND);
+                    intent.setType("text/plain");
+                    intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.share_update_timings));
+                    intent.putExtra(Intent.EXTRA_TEXT, UpdateTimings.getReport(getActivity()));
+                    startActivity(Intent.createChooser(intent, getString(R.string.share_update_timings)));
+                    return true;
+                }
+            };
+
     /**
      * Initializes SystemInstaller preference, which can only be enabled when F-Droid is installed as a system-app
      */
@@ -246,7 +246,7 @@ public class AppListActivity extends AppCompatActivity implements LoaderManager.
         return new CursorLoader(
                 this,
                 AppProvider.getSearchUri(searchTerms, category),
-                AppMetadataTable.Cols.ALL,
+                AppMetadataTable.Cols.LIST,
                 null,
                 null,
                 getSortOrder()
@@ -86,7 +86,7 @@ public class InstalledAppsActivity extends AppCompatActivity implements LoaderMa
         return new CursorLoader(
                 this,
                 AppProvider.getInstalledUri(),
-                Schema.AppMetadataTable.Cols.ALL,
+                Schema.AppMetadataTable.Cols.LIST,
                 null, null, null);
     }
 
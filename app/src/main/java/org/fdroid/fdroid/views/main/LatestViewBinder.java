@@ -121,7 +121,7 @@ class LatestViewBinder implements LoaderManager.LoaderCallbacks<Cursor> {
         return new CursorLoader(
                 activity,
                 AppProvider.getLatestTabUri(),
-                AppMetadataTable.Cols.ALL,
+                AppMetadataTable.Cols.LIST,
                 Utils.getAntifeatureSQLFilter(activity),
                 null,
                 table + "." + Cols.IS_LOCALIZED + " DESC"
@@ -217,7 +217,7 @@ public class UpdatesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         }
 
         return new CursorLoader(
-                activity, uri, Schema.AppMetadataTable.Cols.ALL, null, null, Schema.AppMetadataTable.Cols.NAME);
+                activity, uri, Schema.AppMetadataTable.Cols.LIST, null, null, Schema.AppMetadataTable.Cols.NAME);
     }
 
     @Override
@@ -0,0 +1,94 @@
+package org.fdroid.fdroid;
+
+import android.content.ContentValues;
+
+import org.fdroid.fdroid.data.FDroidProviderTest;
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoProvider;
+import org.fdroid.fdroid.data.Schema;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class IndexSnapshotTest extends FDroidProviderTest {
+
+    private static final String ADDRESS = "https://testy.at.or.at/fdroid/repo";
+
+    private Repo createRepo() {
+        ContentValues values = new ContentValues(2);
+        values.put(Schema.RepoTable.Cols.ADDRESS, ADDRESS);
+        values.put(Schema.RepoTable.Cols.NAME, "Testy");
+        RepoProvider.Helper.insert(context, values);
+        return RepoProvider.Helper.findByAddress(context, ADDRESS);
+    }
+
+    @Test
+    public void keptAfterUpdate() throws IOException, IndexUpdater.UpdateException {
+        Repo repo = createRepo();
+        File file = TestUtils.copyResourceToTempFile("testy.at.or.at_index-v1.jar");
+        File kept = UpdateCheckpoint.start(context, repo.getId(), file, "etag");
+        assertTrue(new IndexV1Updater(context, repo).update());
+        assertFalse(kept.exists());
+
+        repo = RepoProvider.Helper.findByAddress(context, ADDRESS);
+        File snapshot = IndexSnapshot.getFile(context, repo);
+        assertNotNull(snapshot);
+        assertTrue(snapshot.isFile());
+        assertEquals("etag", IndexSnapshot.getEtag(context, repo));
+
+        IndexSnapshot.delete(context, repo.getId());
+        assertNull(IndexSnapshot.getFile(context, repo));
+        assertFalse(snapshot.exists());
+    }
+
+    @Test
+    public void onlyForSameRepo() throws IOException {
+        Repo repo = createRepo();
+        repo.signingCertificate = "1234";
+        IndexSnapshot.save(context, repo, TestUtils.copyResourceToTempFile("testy.at.or.at_index-v1.jar"), "etag");
+        assertNotNull(IndexSnapshot.getFile(context, repo));
+
+        repo.signingCertificate = "5678";
+        assertNull(IndexSnapshot.getFile(context, repo));
+        repo.signingCertificate = null;
+        assertNull(IndexSnapshot.getFile(context, repo));
+
+        repo.signingCertificate = "1234";
+        repo.address = "https://example.com/fdroid/repo";
+        assertNull(IndexSnapshot.getFile(context, repo));
+    }
+
+    @Test
+    public void notKeptWithoutSigningCertificate() throws IOException {
+        Repo repo = createRepo();
+        File file = TestUtils.copyResourceToTempFile("testy.at.or.at_index-v1.jar");
+        IndexSnapshot.save(context, repo, file, "etag");
+        assertTrue(file.exists());
+        repo.signingCertificate = "1234";
+        assertNull(IndexSnapshot.getFile(context, repo));
+    }
+
+    @Test
+    public void deletedWithRepo() throws IOException {
+        Repo repo = createRepo();
+        repo.signingCertificate = "1234";
+        IndexSnapshot.save(context, repo, TestUtils.copyResourceToTempFile("testy.at.or.at_index-v1.jar"), "etag");
+        File snapshot = IndexSnapshot.getFile(context, repo);
+        assertNotNull(snapshot);
+
+        RepoProvider.Helper.remove(context, repo.getId());
+        assertFalse(snapshot.exists());
+        assertNull(IndexSnapshot.getFile(context, repo));
+        assertNull(IndexSnapshot.getEtag(context, repo));
+    }
+}
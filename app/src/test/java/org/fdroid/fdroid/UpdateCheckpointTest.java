@@ -0,0 +1,119 @@
+package org.fdroid.fdroid;
+
+import android.content.ContentValues;
+
+import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.FDroidProviderTest;
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoProvider;
+import org.fdroid.fdroid.data.Schema;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class UpdateCheckpointTest extends FDroidProviderTest {
+
+    private static final String TESTY_JAR = "testy.at.or.at_index-v1.jar";
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = TestUtils.copyResourceToTempFile(TESTY_JAR);
+    }
+
+    @Test
+    public void resumesSameRepo() {
+        File kept = UpdateCheckpoint.start(context, 1, file, "etag");
+        UpdateCheckpoint.onAppsSaved(context, 1, 150);
+        assertEquals(kept, UpdateCheckpoint.getFile(context, 1));
+        assertEquals("etag", UpdateCheckpoint.getEtag(context, 1));
+        assertEquals(150, UpdateCheckpoint.getAppsSaved(context, 1));
+
+        // starting again on the same file is what resuming does, so it keeps the progress
+        assertEquals(kept, UpdateCheckpoint.start(context, 1, kept, "etag"));
+        assertEquals(150, UpdateCheckpoint.getAppsSaved(context, 1));
+
+        assertNull(UpdateCheckpoint.getFile(context, 2));
+        assertEquals(0, UpdateCheckpoint.getAppsSaved(context, 2));
+        UpdateCheckpoint.onAppsSaved(context, 2, 300);
+        assertEquals(150, UpdateCheckpoint.getAppsSaved(context, 1));
+
+        UpdateCheckpoint.onTempTablesInit(context, 1);
+        assertEquals(0, UpdateCheckpoint.getAppsSaved(context, 1));
+        assertEquals(kept, UpdateCheckpoint.getFile(context, 1));
+    }
+
+    @Test
+    public void stagingAnotherRepoDiscardsCheckpoint() {
+        File kept = UpdateCheckpoint.start(context, 1, file, "etag");
+        UpdateCheckpoint.onAppsSaved(context, 1, 150);
+        UpdateCheckpoint.onTempTablesInit(context, 2);
+        assertNull(UpdateCheckpoint.getFile(context, 1));
+        assertEquals(0, UpdateCheckpoint.getAppsSaved(context, 1));
+        assertFalse(kept.exists());
+    }
+
+    @Test
+    public void missingFileDiscardsCheckpoint() {
+        File kept = UpdateCheckpoint.start(context, 1, file, "etag");
+        assertTrue(kept.delete());
+        assertNull(UpdateCheckpoint.getFile(context, 1));
+        assertNull(UpdateCheckpoint.getEtag(context, 1));
+    }
+
+    /**
+     * A download is named {@code dl-*}, and {@link org.fdroid.fdroid.work.CleanCacheWorker}
+     * deletes those after an hour, so the checkpoint moves it somewhere else.
+     */
+    @Test
+    public void keptOutOfTheCacheCleanersWay() throws IOException {
+        File download = File.createTempFile("dl-", "", context.getCacheDir());
+        assertTrue(file.renameTo(download));
+        File kept = UpdateCheckpoint.start(context, 1, download, "etag");
+        assertFalse(download.exists());
+        assertTrue(kept.isFile());
+        assertFalse(kept.getName().startsWith("dl-"));
+        assertNotEquals(context.getCacheDir(), kept.getParentFile());
+        assertEquals(kept, UpdateCheckpoint.getFile(context, 1));
+
+        UpdateCheckpoint.clear(context);
+        assertFalse(kept.exists());
+    }
+
+    /**
+     * The checkpoint claims that apps were saved, but the temp tables are not there, so the
+     * whole index has to be processed again, from the kept file rather than a new download.
+     */
+    @Test
+    public void resumesFromKeptFile() throws IndexUpdater.UpdateException {
+        ContentValues values = new ContentValues(2);
+        values.put(Schema.RepoTable.Cols.ADDRESS, "https://testy.at.or.at/fdroid/repo");
+        values.put(Schema.RepoTable.Cols.NAME, "Testy");
+        RepoProvider.Helper.insert(context, values);
+        Repo repo = RepoProvider.Helper.findByAddress(context, "https://testy.at.or.at/fdroid/repo");
+
+        File kept = UpdateCheckpoint.start(context, repo.getId(), file, "etag");
+        UpdateCheckpoint.onAppsSaved(context, repo.getId(), 5);
+
+        IndexV1Updater updater = new IndexV1Updater(context, repo);
+        assertTrue(updater.update());
+        assertTrue(updater.hasChanged());
+
+        assertTrue(AppProvider.Helper.all(context.getContentResolver()).size() > 5);
+        assertEquals("etag", RepoProvider.Helper.findById(context, repo.getId()).lastetag);
+        assertNull(UpdateCheckpoint.getFile(context, repo.getId()));
+        assertFalse(kept.exists());
+    }
+}
@@ -0,0 +1,101 @@
+package org.fdroid.fdroid;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class UpdateTimingsTest {
+
+    private Context context;
+
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+        context.getSharedPreferences("update-timings", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    private static void advance(long millis) {
+        SystemClock.setCurrentTimeMillis(SystemClock.elapsedRealtime() + millis);
+    }
+
+    @Test
+    public void nestedPhasesOnlyCountTheirOwnTime() throws Exception {
+        UpdateTimings.startRun(true);
+        UpdateTimings.startRepo("https://example.org/fdroid/repo");
+        UpdateTimings.begin(UpdateTimings.Phase.PARSE);
+        advance(100);
+        UpdateTimings.begin(UpdateTimings.Phase.TEMP_INSERT);
+        advance(30);
+        UpdateTimings.begin(UpdateTimings.Phase.COMPATIBILITY);
+        advance(5);
+        UpdateTimings.end();
+        UpdateTimings.end();
+        advance(20);
+        UpdateTimings.end();
+        UpdateTimings.addBytes(2048);
+        UpdateTimings.finishRepo(IndexUpdater.SIGNED_FILE_NAME, "changed");
+        UpdateTimings.begin(UpdateTimings.Phase.NOTIFY);
+        advance(7);
+        UpdateTimings.end();
+        UpdateTimings.finishRun(context);
+
+        JSONArray history = UpdateTimings.getHistory(context);
+        assertEquals(1, history.length());
+        JSONObject run = history.getJSONObject(0);
+        assertTrue(run.getBoolean("manual"));
+        assertEquals(7, run.getJSONObject("phases").getLong("notify"));
+
+        JSONObject repo = run.getJSONArray("repos").getJSONObject(0);
+        assertEquals("changed", repo.getString("result"));
+        assertEquals(2048, repo.getLong("bytes"));
+        assertEquals(155, repo.getLong("duration"));
+        JSONObject phases = repo.getJSONObject("phases");
+        assertEquals(120, phases.getLong("parse"));
+        assertEquals(30, phases.getLong("tempInsert"));
+        assertEquals(5, phases.getLong("compatibility"));
+        assertFalse(phases.has("notify"));
+
+        String report = UpdateTimings.getReport(context);
+        assertTrue(report, report.contains("https://example.org/fdroid/repo index.jar changed 155ms 2kB"));
+        assertTrue(report, report.contains("parse=120 compatibility=5 tempInsert=30"));
+    }
+
+    @Test
+    public void nothingRecordedOutsideOfRun() {
+        UpdateTimings.begin(UpdateTimings.Phase.DOWNLOAD);
+        UpdateTimings.addBytes(100);
+        UpdateTimings.end();
+        UpdateTimings.finishRun(context);
+        assertEquals(0, UpdateTimings.getHistory(context).length());
+        assertEquals("", UpdateTimings.getReport(context));
+    }
+
+    @Test
+    public void onlyKeepsLastRuns() throws Exception {
+        for (int i = 0; i < UpdateTimings.MAX_HISTORY + 5; i++) {
+            UpdateTimings.startRun(false);
+            UpdateTimings.startRepo("repo" + i);
+            UpdateTimings.finishRepo(IndexV1Updater.SIGNED_FILE_NAME, "unchanged");
+            UpdateTimings.finishRun(context);
+        }
+        JSONArray history = UpdateTimings.getHistory(context);
+        assertEquals(UpdateTimings.MAX_HISTORY, history.length());
+        assertEquals("repo5", history.getJSONObject(0).getJSONArray("repos").getJSONObject(0).getString("address"));
+        assertEquals("repo" + (UpdateTimings.MAX_HISTORY + 4),
+                history.getJSONObject(UpdateTimings.MAX_HISTORY - 1)
+                        .getJSONArray("repos").getJSONObject(0).getString("address"));
+    }
+}
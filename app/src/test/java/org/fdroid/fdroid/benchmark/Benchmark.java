@@ -0,0 +1,102 @@
+package org.fdroid.fdroid.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * A minimal micro-benchmark harness in the spirit of JMH, for code which can only run
+ * inside of Robolectric.  JMH forks its own JVMs and instantiates the benchmark classes
+ * itself, so it cannot reach anything which needs a {@link android.content.Context},
+ * {@link android.content.res.Resources} or the database, which is almost everything in
+ * the index parsing path.
+ * <p>
+ * Each run does some warmup iterations to let the JIT settle, then measures throughput
+ * and the bytes allocated per operation on the current thread.  The benchmarks are not
+ * run as part of the normal unit tests, run them with:
+ * <pre>
+ * ./gradlew testFullDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ * </pre>
+ */
+public final class Benchmark {
+
+    public static final String PROPERTY = "fdroid.benchmark";
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 10;
+
+    public interface Operation {
+        /**
+         * @return something derived from the work done, so the JIT cannot optimize it away
+         */
+        Object run() throws Exception;
+    }
+
+    public static final class Result {
+        public final String name;
+        public final double opsPerSecond;
+        public final long bytesPerOp;
+
+        private Result(String name, double opsPerSecond, long bytesPerOp) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%-50s %10.3f ops/s %14d B/op", name, opsPerSecond, bytesPerOp);
+        }
+    }
+
+    private static int blackhole;
+
+    private Benchmark() {
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    public static Result run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            consume(operation.run());
+        }
+        System.gc();
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            consume(operation.run());
+        }
+        long duration = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+
+        Result result = new Result(name,
+                MEASUREMENT_ITERATIONS / (duration / 1e9),
+                allocated < 0 ? -1 : allocated / MEASUREMENT_ITERATIONS);
+        System.out.println("Benchmark: " + result);
+        return result;
+    }
+
+    private static void consume(Object result) {
+        if (result != null) {
+            blackhole ^= result.hashCode();
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by this thread, or {@code -1} if the
+     * JVM does not support measuring that.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,174 @@
+package org.fdroid.fdroid.benchmark;
+
+import android.content.Context;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.io.IOUtils;
+import org.fdroid.fdroid.CompatibilityChecker;
+import org.fdroid.fdroid.IndexV1Updater;
+import org.fdroid.fdroid.Preferences;
+import org.fdroid.fdroid.data.Apk;
+import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoXMLPullParser;
+import org.fdroid.fdroid.mock.MockRepo;
+import org.fdroid.fdroid.mock.RepoDetails;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Throughput and allocation of the parts of the index update which are pure parsing,
+ * run against the test resources and versions of them scaled up to realistic sizes.
+ * The database is deliberately left out so that these numbers only move when parsing does.
+ *
+ * @see Benchmark for how to run these
+ */
+@RunWith(RobolectricTestRunner.class)
+public class IndexParsingBenchmark {
+
+    private static final int[] SCALES = {1, 10, 50};
+
+    private Context context;
+    private IndexV1Updater indexV1Updater;
+
+    @BeforeClass
+    public static void onlyWhenRequested() {
+        assumeTrue("Benchmarks only run with -Pbenchmark", Benchmark.isEnabled());
+    }
+
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+        Preferences.setupForTests(context);
+        Repo repo = new MockRepo(100);
+        repo.address = "https://example.com/fdroid/repo";
+        indexV1Updater = new IndexV1Updater(context, repo);
+    }
+
+    @Test
+    public void indexV1Json() throws Exception {
+        final byte[] fdroid = readJarEntry("index-v1.fdroid.2017-07-07.jar", IndexV1Updater.DATA_FILE_NAME);
+        Benchmark.run("IndexV1 JSON index-v1.fdroid.2017-07-07", () -> parseIndexV1(fdroid));
+
+        byte[] guardianProject = readResource("guardianproject_index-v1.json");
+        for (int scale : SCALES) {
+            final byte[] json = SyntheticIndex.scale(guardianProject, scale);
+            assertEquals(16 * scale, parseIndexV1(json).apps.length);
+            Benchmark.run("IndexV1 JSON guardianproject x" + scale, () -> parseIndexV1(json));
+        }
+    }
+
+    @Test
+    public void appSetLocalized() throws Exception {
+        byte[] json = readJarEntry("index-v1.fdroid.2017-07-07.jar", IndexV1Updater.DATA_FILE_NAME);
+        final ObjectMapper mapper = IndexV1Updater.getObjectMapperInstance(1);
+        final List<byte[]> localizedOnly = new ArrayList<>();
+        for (JsonNode app : mapper.readTree(json).get("apps")) {
+            if (app.has("localized")) {
+                localizedOnly.add(mapper.writeValueAsBytes(
+                        mapper.createObjectNode().set("localized", app.get("localized"))));
+            }
+        }
+        assertTrue(localizedOnly.size() > 0);
+
+        Benchmark.run("App.setLocalized x" + localizedOnly.size(), () -> {
+            int count = 0;
+            for (byte[] bytes : localizedOnly) {
+                App app = mapper.readValue(bytes, App.class);
+                if (app.description != null) {
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+
+    @Test
+    public void repoXmlHandler() throws Exception {
+        for (String resource : new String[]{"simpleIndex.xml", "mediumRepo.xml", "largeRepo.xml"}) {
+            final byte[] xml = readResource(resource);
+            Benchmark.run("RepoXMLHandler " + resource,
+                    () -> RepoDetails.getFromFile(new ByteArrayInputStream(xml), Repo.PUSH_REQUEST_IGNORE).apks.size());
+        }
+    }
+
+    @Test
+    public void repoXmlPullParser() throws Exception {
+        for (String resource : new String[]{"simpleIndex.xml", "mediumRepo.xml", "largeRepo.xml"}) {
+            final byte[] xml = readResource(resource);
+            Benchmark.run("RepoXMLPullParser " + resource, () -> {
+                RepoDetails repoDetails = new RepoDetails();
+                new RepoXMLPullParser(new MockRepo(100, Repo.PUSH_REQUEST_IGNORE), repoDetails)
+                        .parse(new ByteArrayInputStream(xml));
+                return repoDetails.apks.size();
+            });
+        }
+    }
+
+    @Test
+    public void compatibilityChecker() throws Exception {
+        byte[] guardianProject = readResource("guardianproject_index-v1.json");
+        final List<Apk> apks = new ArrayList<>();
+        for (List<Apk> packages : parseIndexV1(SyntheticIndex.scale(guardianProject, 10)).packages.values()) {
+            apks.addAll(packages);
+        }
+        final CompatibilityChecker checker = new CompatibilityChecker(context);
+        Benchmark.run("CompatibilityChecker x" + apks.size(), () -> {
+            int incompatible = 0;
+            for (Apk apk : apks) {
+                if (!checker.getIncompatibleReasons(apk).isEmpty()) {
+                    incompatible++;
+                }
+            }
+            return incompatible;
+        });
+    }
+
+    private IndexV1Updater.ParsedIndexV1 parseIndexV1(byte[] json) throws Exception {
+        return indexV1Updater.parseIndexV1(new ByteArrayInputStream(json));
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream input = IndexParsingBenchmark.class.getClassLoader().getResourceAsStream(name);
+        try {
+            return IOUtils.toByteArray(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private static byte[] readJarEntry(String jarResource, String entryName) throws IOException {
+        JarInputStream jar = new JarInputStream(
+                IndexParsingBenchmark.class.getClassLoader().getResourceAsStream(jarResource));
+        try {
+            JarEntry entry;
+            while ((entry = jar.getNextJarEntry()) != null) {
+                if (entryName.equals(entry.getName())) {
+                    return IOUtils.toByteArray(jar);
+                }
+            }
+            throw new IOException(entryName + " not found in " + jarResource);
+        } finally {
+            IOUtils.closeQuietly(jar);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.fdroid.fdroid.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scales up a real {@code index-v1.json} by repeating every app and its packages under
+ * new package names, so that parsing can be measured against much bigger repos than
+ * the test resources contain, while keeping the same mix of fields and locales.
+ */
+public final class SyntheticIndex {
+
+    private SyntheticIndex() {
+    }
+
+    /**
+     * @param indexV1Json the contents of a real {@code index-v1.json}
+     * @param copies      how many times each app should be in the output, {@code 1}
+     *                    returns an equivalent index
+     */
+    public static byte[] scale(byte[] indexV1Json, int copies) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode index = (ObjectNode) mapper.readTree(indexV1Json);
+
+        ArrayNode apps = (ArrayNode) index.get("apps");
+        List<JsonNode> originalApps = new ArrayList<>();
+        for (JsonNode app : apps) {
+            originalApps.add(app);
+        }
+        ObjectNode packages = (ObjectNode) index.get("packages");
+        List<Map.Entry<String, JsonNode>> originalPackages = new ArrayList<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = packages.fields();
+        while (fields.hasNext()) {
+            originalPackages.add(fields.next());
+        }
+
+        for (int i = 1; i < copies; i++) {
+            String suffix = ".synthetic" + i;
+            for (JsonNode app : originalApps) {
+                ObjectNode copy = app.deepCopy();
+                copy.put("packageName", app.get("packageName").asText() + suffix);
+                apps.add(copy);
+            }
+            for (Map.Entry<String, JsonNode> entry : originalPackages) {
+                ArrayNode apks = entry.getValue().deepCopy();
+                for (JsonNode apk : apks) {
+                    ((ObjectNode) apk).put("packageName", entry.getKey() + suffix);
+                }
+                packages.set(entry.getKey() + suffix, apks);
+            }
+        }
+        return mapper.writeValueAsBytes(index);
+    }
+}
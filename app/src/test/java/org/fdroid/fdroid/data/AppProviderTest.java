@@ -100,6 +100,22 @@ public class AppProviderTest extends FDroidProviderTest {
         cursor.close();
     }
 
+    @Test
+    public void testListProjectionLeavesOutDetails() {
+        insertAndInstallApp("com.example.app", 1, 2, false, 0);
+
+        App listed = AppProvider.Helper.findSpecificApp(contentResolver, "com.example.app", 1, Cols.LIST);
+        assertEquals("App: com.example.app", listed.name);
+        assertEquals("com.example.app", listed.packageName);
+        assertEquals(1, listed.installedVersionCode);
+        assertNull(listed.description);
+        assertNull(listed.license);
+
+        App details = AppProvider.Helper.findHighestPriorityMetadata(contentResolver, "com.example.app");
+        assertNotNull(details.description);
+        assertEquals("GPL?", details.license);
+    }
+
     private void insertApps(int count) {
         for (int i = 0; i < count; i++) {
             insertApp("com.example.test." + i, "Test app " + i);
@@ -0,0 +1,70 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable.Cols;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompressedTextTest extends FDroidProviderTest {
+
+    private static final String WHATS_NEW = "* Fixed crash when opening the settings\n"
+            + "* Updated translations, thanks to all translators\n"
+            + "* Bug fixes and improvements\n";
+
+    @Test
+    public void roundTrip() {
+        byte[] compressed = CompressedText.compress(WHATS_NEW);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < WHATS_NEW.length() / 2);
+        assertEquals(WHATS_NEW, CompressedText.decompress(compressed));
+    }
+
+    @Test
+    public void shortTextIsNotCompressed() {
+        assertNull(CompressedText.compress(null));
+        assertNull(CompressedText.compress(""));
+        assertNull(CompressedText.compress("Bug fixes"));
+    }
+
+    @Test
+    public void corruptDataIsIgnored() {
+        byte[] compressed = CompressedText.compress(WHATS_NEW + WHATS_NEW.toUpperCase());
+        assertNull(CompressedText.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+        compressed[0] = 42;
+        assertNull(CompressedText.decompress(compressed));
+        assertNull(CompressedText.decompress(new byte[0]));
+    }
+
+    @Test
+    public void readsBackFromDatabase() {
+        String[] screenshots = {
+                "en-US/phoneScreenshots/screenshot-main.png",
+                "en-US/phoneScreenshots/screenshot-settings.png",
+                "en-US/phoneScreenshots/screenshot-about.png",
+        };
+        ContentValues values = new ContentValues();
+        CompressedText.put(values, Cols.WHATSNEW, WHATS_NEW);
+        CompressedText.put(values, Cols.PHONE_SCREENSHOTS, Utils.serializeCommaSeparatedString(screenshots));
+        CompressedText.put(values, Cols.TV_SCREENSHOTS, "en-US/tvScreenshots/1.png");
+        assertTrue(values.get(Cols.WHATSNEW) instanceof byte[]);
+        assertTrue(values.get(Cols.PHONE_SCREENSHOTS) instanceof byte[]);
+        assertTrue(values.get(Cols.TV_SCREENSHOTS) instanceof String);
+
+        App app = AppProviderTest.insertApp(contentResolver, context, "org.example.app", "Example", values);
+        assertEquals(WHATS_NEW, app.whatsNew);
+        assertArrayEquals(screenshots, app.phoneScreenshots);
+        assertArrayEquals(new String[]{"en-US/tvScreenshots/1.png"}, app.tvScreenshots);
+    }
+}
@@ -0,0 +1,65 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentResolver;
+
+import org.fdroid.fdroid.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class QueryStatsTest {
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setup() {
+        QueryStats.clear();
+        resolver = ApplicationProvider.getApplicationContext().getContentResolver();
+    }
+
+    @After
+    public void teardown() {
+        DBHelper.clearDbHelperSingleton();
+    }
+
+    @Test
+    public void uriPatterns() {
+        assertEquals("AppProvider/app/#/*",
+                LoggingQuery.getUriPattern(AppProvider.getSpecificAppUri("org.fdroid.fdroid", 42)));
+        assertEquals("AppProvider/search/*/*",
+                LoggingQuery.getUriPattern(AppProvider.getSearchUri("fdroid", "Internet")));
+        assertEquals("AppProvider", LoggingQuery.getUriPattern(AppProvider.getContentUri()));
+    }
+
+    @Test
+    public void onlyNewOutliersNeedPlans() {
+        assertFalse(QueryStats.record("test", 5, 10));
+        assertTrue(QueryStats.record("test", QueryStats.OUTLIER_DURATION, 10));
+        assertFalse(QueryStats.record("test", QueryStats.OUTLIER_DURATION, 10));
+        assertTrue(QueryStats.record("test", QueryStats.OUTLIER_DURATION + 1, -1));
+        assertEquals(4, QueryStats.getCount("test"));
+
+        QueryStats.recordPlan("test", "SELECT 1", new String[]{"SCAN CONSTANT ROW"});
+        String report = QueryStats.getReport();
+        assertTrue(report.contains("test 4 "));
+        assertTrue(report.contains("SCAN CONSTANT ROW"));
+    }
+
+    @Test
+    public void queriesThroughProvidersAreRecorded() {
+        TestUtils.registerContentProvider(AppProvider.getAuthority(), AppProvider.class);
+        resolver.query(AppProvider.getContentUri(), Schema.AppMetadataTable.Cols.ALL, null, null, null).close();
+        resolver.query(AppProvider.getSearchUri("fdroid", null), Schema.AppMetadataTable.Cols.ALL, null, null, null).close();
+        assertEquals(1, QueryStats.getCount("AppProvider"));
+        assertTrue(QueryStats.getPatterns().contains("AppProvider/search/*"));
+    }
+}
@@ -0,0 +1,69 @@
+package org.fdroid.fdroid.data;
+
+import org.junit.Test;
+
+import static org.fdroid.fdroid.data.RepoPersister.FlushPolicy.BYTES_PER_PACKAGE;
+import static org.fdroid.fdroid.data.RepoPersister.FlushPolicy.HEAP_FRACTION;
+import static org.fdroid.fdroid.data.RepoPersister.FlushPolicy.INITIAL_PACKAGES;
+import static org.fdroid.fdroid.data.RepoPersister.FlushPolicy.MAX_PACKAGES;
+import static org.fdroid.fdroid.data.RepoPersister.FlushPolicy.MIN_PACKAGES;
+import static org.fdroid.fdroid.data.RepoPersister.FlushPolicy.TARGET_FLUSH_MILLIS;
+import static org.junit.Assert.assertEquals;
+
+public class RepoPersisterTest {
+
+    private static final long PLENTY_OF_HEAP = 512L * 1024 * 1024;
+
+    @Test
+    public void growsOnFastDevices() {
+        RepoPersister.FlushPolicy policy = new RepoPersister.FlushPolicy(PLENTY_OF_HEAP);
+        assertEquals(INITIAL_PACKAGES, policy.getPackageLimit());
+
+        policy.onFlush(INITIAL_PACKAGES, TARGET_FLUSH_MILLIS / 10, PLENTY_OF_HEAP);
+        assertEquals(INITIAL_PACKAGES * 2, policy.getPackageLimit());
+
+        for (int i = 0; i < 10; i++) {
+            policy.onFlush(policy.getPackageLimit(), 1, PLENTY_OF_HEAP);
+        }
+        assertEquals(MAX_PACKAGES, policy.getPackageLimit());
+    }
+
+    @Test
+    public void shrinksOnSlowDevices() {
+        RepoPersister.FlushPolicy policy = new RepoPersister.FlushPolicy(PLENTY_OF_HEAP);
+        policy.onFlush(INITIAL_PACKAGES, TARGET_FLUSH_MILLIS * 10, PLENTY_OF_HEAP);
+        assertEquals(INITIAL_PACKAGES / 2, policy.getPackageLimit());
+
+        policy.onFlush(policy.getPackageLimit(), TARGET_FLUSH_MILLIS * 10, PLENTY_OF_HEAP);
+        assertEquals(MIN_PACKAGES, policy.getPackageLimit());
+    }
+
+    @Test
+    public void settlesOnTarget() {
+        RepoPersister.FlushPolicy policy = new RepoPersister.FlushPolicy(PLENTY_OF_HEAP);
+        policy.onFlush(INITIAL_PACKAGES, TARGET_FLUSH_MILLIS * 3 / 4, PLENTY_OF_HEAP);
+        assertEquals(200, policy.getPackageLimit());
+        policy.onFlush(200, TARGET_FLUSH_MILLIS, PLENTY_OF_HEAP);
+        assertEquals(200, policy.getPackageLimit());
+    }
+
+    @Test
+    public void ignoresSmallFlushes() {
+        RepoPersister.FlushPolicy policy = new RepoPersister.FlushPolicy(PLENTY_OF_HEAP);
+        policy.onFlush(3, TARGET_FLUSH_MILLIS * 100, PLENTY_OF_HEAP);
+        assertEquals(INITIAL_PACKAGES, policy.getPackageLimit());
+    }
+
+    @Test
+    public void limitedByHeap() {
+        long heapFor100 = 100 * BYTES_PER_PACKAGE * HEAP_FRACTION;
+        RepoPersister.FlushPolicy policy = new RepoPersister.FlushPolicy(heapFor100);
+        assertEquals(100, policy.getPackageLimit());
+
+        policy.onFlush(100, 1, heapFor100);
+        assertEquals(100, policy.getPackageLimit());
+
+        policy.onFlush(100, 1, 0);
+        assertEquals(MIN_PACKAGES, policy.getPackageLimit());
+    }
+}
@@ -0,0 +1,134 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+
+import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.mock.MockRepo;
+import org.fdroid.fdroid.mock.RepoDetails;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link RepoXMLPullParser} gives exactly the same results as
+ * {@link RepoXMLHandler}, which {@link RepoXMLHandlerTest} covers in detail.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RepoXMLPullParserTest {
+
+    private static final String[] INDEXES = {
+            "simpleIndex.xml",
+            "smallRepo.xml",
+            "mediumRepo.xml",
+            "largeRepo.xml",
+            "extendedPerms.xml",
+            "obbIndex.xml",
+            "guardianproject_index.xml",
+    };
+
+    @Test
+    public void sameAsSaxParser() throws Exception {
+        for (String index : INDEXES) {
+            assertSameAsSaxParser(index, Repo.PUSH_REQUEST_IGNORE);
+        }
+        assertSameAsSaxParser("pushRequestsIndex.xml", Repo.PUSH_REQUEST_IGNORE);
+        assertSameAsSaxParser("pushRequestsIndex.xml", Repo.PUSH_REQUEST_ACCEPT_ALWAYS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corruptedPackageName() throws Exception {
+        parse("simpleIndexWithCorruptedPackageName.xml", Repo.PUSH_REQUEST_IGNORE);
+        fail();
+    }
+
+    @Test
+    public void parseIntFromChars() {
+        assertEquals(123, parseInt("123"));
+        assertEquals(123, parseInt("  123\n"));
+        assertEquals(-5, parseInt("-5"));
+        assertEquals(5, parseInt("+5"));
+        assertEquals(Integer.MAX_VALUE, parseInt(Integer.toString(Integer.MAX_VALUE)));
+        assertEquals(Integer.MIN_VALUE, parseInt(Integer.toString(Integer.MIN_VALUE)));
+        assertEquals(-1, parseInt("2147483648"));
+        assertEquals(-1, parseInt("-2147483649"));
+        assertEquals(-1, parseInt("99999999999999999999"));
+        assertEquals(-1, parseInt("12a"));
+        assertEquals(-1, parseInt("1.5"));
+        assertEquals(-1, parseInt("-"));
+        assertEquals(-1, parseInt(" "));
+    }
+
+    private static int parseInt(String str) {
+        char[] chars = ("xx" + str + "yy").toCharArray();
+        return RepoXMLPullParser.parseInt(chars, 2, chars.length - 2, -1);
+    }
+
+    private void assertSameAsSaxParser(String index, int pushRequests) throws Exception {
+        RepoDetails expected = RepoXMLHandlerTest.getFromFile(getClass().getClassLoader(), index, pushRequests);
+        RepoDetails actual = parse(index, pushRequests);
+
+        assertEquals(index, expected.name, actual.name);
+        assertEquals(index, expected.description, actual.description);
+        assertEquals(index, expected.signingCert, actual.signingCert);
+        assertEquals(index, expected.maxAge, actual.maxAge);
+        assertEquals(index, expected.version, actual.version);
+        assertEquals(index, expected.timestamp, actual.timestamp);
+        assertEquals(index, expected.icon, actual.icon);
+        assertArrayEquals(index, expected.mirrors, actual.mirrors);
+
+        assertEquals(index, expected.repoPushRequestList.size(), actual.repoPushRequestList.size());
+        for (int i = 0; i < expected.repoPushRequestList.size(); i++) {
+            RepoPushRequest expectedRequest = expected.repoPushRequestList.get(i);
+            RepoPushRequest actualRequest = actual.repoPushRequestList.get(i);
+            assertEquals(index, expectedRequest.request, actualRequest.request);
+            assertEquals(index, expectedRequest.packageName, actualRequest.packageName);
+            assertEquals(index, expectedRequest.versionCode, actualRequest.versionCode);
+        }
+
+        assertEquals(index, expected.apps.size(), actual.apps.size());
+        for (int i = 0; i < expected.apps.size(); i++) {
+            assertEquals(index, expected.apps.get(i).toContentValues(), actual.apps.get(i).toContentValues());
+        }
+        assertApksEqual(index, expected.apks, actual.apks);
+    }
+
+    /**
+     * The requested permissions come out of a {@link HashSet}, so their order is not
+     * part of what is being compared.
+     */
+    private static void assertApksEqual(String index, List<Apk> expected, List<Apk> actual) {
+        assertEquals(index, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Apk expectedApk = expected.get(i);
+            Apk actualApk = actual.get(i);
+            assertEquals(index, new HashSet<>(Arrays.asList(expectedApk.requestedPermissions)),
+                    new HashSet<>(Arrays.asList(actualApk.requestedPermissions)));
+
+            ContentValues expectedValues = expectedApk.toContentValues();
+            ContentValues actualValues = actualApk.toContentValues();
+            expectedValues.remove(ApkTable.Cols.REQUESTED_PERMISSIONS);
+            actualValues.remove(ApkTable.Cols.REQUESTED_PERMISSIONS);
+            assertEquals(index + " " + expectedApk.packageName, expectedValues, actualValues);
+        }
+    }
+
+    private RepoDetails parse(String index, int pushRequests) throws Exception {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream(index);
+        try {
+            RepoDetails repoDetails = new RepoDetails();
+            new RepoXMLPullParser(new MockRepo(100, pushRequests), repoDetails).parse(inputStream);
+            return repoDetails;
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -3,6 +3,9 @@ package org.fdroid.fdroid.installer;
 import android.content.ContextWrapper;
 import android.util.Log;
 
+import org.apache.commons.io.FileUtils;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Apk;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -10,10 +13,13 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.shadows.ShadowLog;
 
 import java.io.File;
+import java.io.IOException;
 
 import androidx.test.core.app.ApplicationProvider;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(RobolectricTestRunner.class)
@@ -61,4 +67,29 @@ public class ApkCacheTest {
                 ApkCache.getApkDownloadPath(context,
                         "https://example.com/fdroid/repo/Norway_bouvet_europe_2.obf"));
     }
+
+    @Test
+    public void testCopyFromLocalCopy() throws IOException {
+        File cachedFile = ApkCache.getApkDownloadPath(context,
+                "https://f-droid.org/repo/org.example.app_2.apk");
+        FileUtils.writeStringToFile(cachedFile, "not really an APK", "UTF-8");
+        File swapFile = ApkCache.getApkDownloadPath(context,
+                "http://192.168.234.12:8888/fdroid/repo/org.example.app_2.apk");
+
+        Apk apk = new Apk();
+        apk.packageName = "org.example.app";
+        apk.size = cachedFile.length();
+        apk.hashType = "sha256";
+        apk.hash = Utils.getFileHexDigest(cachedFile, apk.hashType);
+
+        assertEquals(cachedFile, ApkCache.findLocalCopy(context, apk, swapFile));
+        assertTrue(ApkCache.copyFromLocalCopy(context, apk, swapFile));
+        assertTrue(ApkCache.apkIsCached(swapFile, apk));
+
+        FileUtils.deleteQuietly(swapFile);
+        apk.hash = "0000000000000000000000000000000000000000000000000000000000000000";
+        assertNull(ApkCache.findLocalCopy(context, apk, swapFile));
+        assertFalse(ApkCache.copyFromLocalCopy(context, apk, swapFile));
+        assertFalse(swapFile.exists());
+    }
 }
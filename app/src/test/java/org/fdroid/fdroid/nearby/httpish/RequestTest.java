@@ -0,0 +1,174 @@
+package org.fdroid.fdroid.nearby.httpish;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class RequestTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static InputStream stream(String text) {
+        return new BufferedInputStream(new ByteArrayInputStream(text.getBytes(UTF_8)));
+    }
+
+    @Test
+    public void testReadLine() throws IOException {
+        InputStream input = stream("first\nsecond\r\n\r\nlast");
+        assertEquals("first", Request.readLine(input));
+        assertEquals("second", Request.readLine(input));
+        assertEquals("", Request.readLine(input));
+        assertEquals("last", Request.readLine(input));
+        assertNull(Request.readLine(input));
+        assertNull(Request.readLine(input));
+    }
+
+    @Test
+    public void testReadLineTooLong() throws IOException {
+        char[] chars = new char[10000];
+        Arrays.fill(chars, 'a');
+        InputStream input = stream(new String(chars) + "\n");
+        try {
+            Request.readLine(input);
+            fail("a line longer than the limit should not be read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReadHeaders() throws IOException {
+        InputStream input = stream("Content-Length: 5\r\nETag:  abc \r\nnot a header\r\n\r\nbody!");
+        Map<String, String> headers = Request.readHeaders(input);
+        assertEquals(2, headers.size());
+        assertEquals("5", headers.get("content-length"));
+        assertEquals("abc", headers.get("etag"));
+        assertEquals("body!", IOUtils.toString(input, UTF_8));
+    }
+
+    @Test
+    public void testListenForRequest() throws IOException {
+        InputStream input = stream("\n\r\nGET /fdroid/repo/index-v1.jar HTTP/1.1\r\nIf-None-Match: 123\r\n\r\n");
+        Request request = Request.listenForRequest(input);
+        assertEquals(Request.Methods.GET, request.getMethod());
+        assertEquals("/fdroid/repo/index-v1.jar", request.getPath());
+        assertEquals("123", request.getHeaderValue("If-None-Match"));
+        assertNull(Request.listenForRequest(input));
+    }
+
+    @Test
+    public void testListenForRequestClosed() throws IOException {
+        assertNull(Request.listenForRequest(stream("")));
+        assertNull(Request.listenForRequest(stream("\n\n")));
+    }
+
+    @Test
+    public void testKeepAlive() throws IOException {
+        InputStream input = stream("HEAD /fdroid/repo/index.jar\n\n"
+                + "GET /fdroid/repo/icons/a.png\nAccept-Encoding: gzip\n\n");
+        Request first = Request.listenForRequest(input);
+        assertEquals(Request.Methods.HEAD, first.getMethod());
+        assertEquals("/fdroid/repo/index.jar", first.getPath());
+        assertTrue(first.getHeaders().isEmpty());
+
+        Request second = Request.listenForRequest(input);
+        assertEquals(Request.Methods.GET, second.getMethod());
+        assertEquals("/fdroid/repo/icons/a.png", second.getPath());
+        assertEquals("gzip", second.getHeaderValue("accept-encoding"));
+
+        assertNull(Request.listenForRequest(input));
+    }
+
+    @Test
+    public void testSend() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream input = stream("HTTP(ish)/0.1 200 OK\r\nContent-Length: 5\r\nETag: abc\r\n\r\nhello");
+        Response response = Request.createGET("/fdroid/repo/index-v1.jar", input, output)
+                .addHeader("If-None-Match", "xyz")
+                .send();
+        assertEquals("GET /fdroid/repo/index-v1.jar\nIf-None-Match: xyz\n\n", output.toString("UTF-8"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals(5, response.getFileSize());
+        assertEquals(5, response.toFileDetails().getFileSize());
+        assertEquals("abc", response.toFileDetails().getCacheTag());
+        assertEquals("hello", IOUtils.toString(response.toContentStream(), UTF_8));
+    }
+
+    @Test
+    public void testSendWithoutContentLength() throws IOException {
+        InputStream input = stream("HTTP(ish)/0.1 200 OK\nContent-Type: text/plain\n\nNot found");
+        Response response = Request.createGET("/fdroid/repo/index-v1.jar", input, new ByteArrayOutputStream())
+                .send();
+        assertEquals(200, response.getStatusCode());
+        assertEquals(-1, response.getFileSize());
+        assertEquals(-1, response.toFileDetails().getFileSize());
+    }
+
+    @Test
+    public void testSendToClosedConnection() throws IOException {
+        try {
+            Request.createHEAD("/fdroid/repo/index.jar", stream(""), new ByteArrayOutputStream()).send();
+            fail("there is no response to read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Two requests and responses on the same connection, the way a kept alive
+     * connection is used, which only works if each body is read to its end.
+     */
+    @Test
+    public void testKeepAliveRoundTrip() throws IOException {
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        new Response(200, "text/plain", "first").send(server);
+        new Response.Builder(new ByteArrayInputStream("second body".getBytes(UTF_8)))
+                .setFileSize(11)
+                .setETag("etag")
+                .build()
+                .send(server);
+        new Response(404, "text/plain", "").send(server);
+
+        InputStream input = new BufferedInputStream(new ByteArrayInputStream(server.toByteArray()));
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+
+        Response first = Request.createGET("/first", input, client).send();
+        assertEquals(200, first.getStatusCode());
+        assertEquals("first", readBody(first));
+
+        Response second = Request.createGET("/second", input, client).send();
+        assertEquals(200, second.getStatusCode());
+        assertEquals("etag", second.toFileDetails().getCacheTag());
+        assertEquals("second body", readBody(second));
+
+        Response third = Request.createHEAD("/third", input, client).send();
+        assertEquals(404, third.getStatusCode());
+        assertEquals(0, third.getFileSize());
+
+        assertEquals("GET /first\n\nGET /second\n\nHEAD /third\n\n", client.toString("UTF-8"));
+        assertEquals(-1, input.read());
+    }
+
+    private static String readBody(Response response) throws IOException {
+        BoundedInputStream body = new BoundedInputStream(response.toContentStream(), response.getFileSize());
+        body.setPropagateClose(false);
+        return IOUtils.toString(body, UTF_8);
+    }
+}
@@ -0,0 +1,102 @@
+package org.fdroid.fdroid.net;
+
+import android.net.Uri;
+
+import org.fdroid.fdroid.nearby.BluetoothConnection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BluetoothDownloaderTest {
+
+    /**
+     * How a peer from before the keep-alive rewrite answers a request for a file it
+     * does not have: always {@code 200 OK}, and no {@code Content-Length}.
+     */
+    private static final String OLD_PEER_NOT_FOUND = "HTTP(ish)/0.1 200 OK\n"
+            + "Content-Type: text/plain\n"
+            + "\n"
+            + "File not found: /fdroid/repo/index-v1.jar";
+
+    @Test
+    public void testIndexV1FromOldPeer() throws IOException, InterruptedException {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        FakeOldPeerConnection connection = new FakeOldPeerConnection(OLD_PEER_NOT_FOUND, sent);
+        File destFile = File.createTempFile("BluetoothDownloaderTest-", ".jar");
+        try {
+            Uri uri = Uri.parse("bluetooth://84-CF-BF-8B-3E-34/fdroid/repo/index-v1.jar");
+            BluetoothDownloader downloader = new BluetoothDownloader(uri, destFile, null, connection);
+            downloader.download();
+
+            assertTrue(downloader.isNotFound());
+            assertFalse(downloader.hasChanged());
+            assertEquals(0, destFile.length());
+            assertTrue(sent.toString("UTF-8").startsWith("GET /fdroid/repo/index-v1.jar\n"));
+            assertTrue(connection.closed);
+        } finally {
+            destFile.delete();
+        }
+    }
+
+    /**
+     * An old peer never closes the connection after a response, so reading past the
+     * response fails here instead of blocking the test forever.
+     */
+    private static class FakeOldPeerConnection extends BluetoothConnection {
+        private final InputStream input;
+        private final OutputStream output;
+        private boolean closed;
+
+        FakeOldPeerConnection(String response, OutputStream output) {
+            super(null);
+            final byte[] bytes = response.getBytes(Charset.forName("UTF-8"));
+            this.input = new BufferedInputStream(new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    if (available() == 0) {
+                        throw new AssertionError("Read past the response, which would block forever");
+                    }
+                    return super.read(b, off, len);
+                }
+
+                @Override
+                public synchronized int read() {
+                    if (available() == 0) {
+                        throw new AssertionError("Read past the response, which would block forever");
+                    }
+                    return super.read();
+                }
+            });
+            this.output = output;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void closeQuietly() {
+            closed = true;
+        }
+    }
+}
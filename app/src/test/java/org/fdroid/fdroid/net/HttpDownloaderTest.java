@@ -31,4 +31,14 @@ public class HttpDownloaderTest {
         assertFalse(HttpDownloader.isSwapUrl(Uri.parse("https://malware.com:8888")));
         assertFalse(HttpDownloader.isSwapUrl(new URL("https://www.google.com")));
     }
+
+    @Test
+    public void testIsAlreadyCompressed() throws MalformedURLException {
+        assertTrue(HttpDownloader.isAlreadyCompressed(new URL("https://f-droid.org/repo/index-v1.jar")));
+        assertTrue(HttpDownloader.isAlreadyCompressed(new URL("https://f-droid.org/repo/index.jar?client_version=1")));
+        assertTrue(HttpDownloader.isAlreadyCompressed(new URL("https://f-droid.org/repo/org.fdroid.fdroid_1008000.APK")));
+        assertFalse(HttpDownloader.isAlreadyCompressed(new URL("https://f-droid.org/repo/icons-640/org.fdroid.fdroid.1008000.png")));
+        assertFalse(HttpDownloader.isAlreadyCompressed(new URL("https://f-droid.org/repo/index.xml")));
+        assertFalse(HttpDownloader.isAlreadyCompressed(new URL("https://f-droid.org/repo/")));
+    }
 }
@@ -13,6 +13,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.fdroid.fdroid.Hasher;
 import org.fdroid.fdroid.IndexUpdater;
 import org.fdroid.fdroid.IndexV1Updater;
 import org.fdroid.fdroid.Preferences;
@@ -34,9 +36,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -181,6 +186,23 @@ public class IndexV1UpdaterTest extends FDroidProviderTest {
         getClass().getResourceAsStream("foo");
     }
 
+    /**
+     * The apps in this index would throw an {@link IllegalArgumentException} if they were
+     * parsed, so this checks that a stale index is rejected before they are.
+     */
+    @Test(expected = IndexUpdater.UpdateException.class)
+    public void testIndexV1WithOldTimestampStopsBeforeApps() throws IOException, IndexUpdater.UpdateException {
+        String jar = "testy.at.or.at_corrupt_app_package_name_index-v1.jar";
+        Repo repo = MultiIndexUpdaterTest.createRepo("Testy", jar, context, TESTY_CERT);
+        repo.timestamp = System.currentTimeMillis() / 1000;
+        IndexV1Updater updater = new IndexV1Updater(context, repo);
+        JarFile jarFile = new JarFile(TestUtils.copyResourceToTempFile(jar), true);
+        JarEntry indexEntry = (JarEntry) jarFile.getEntry(IndexV1Updater.DATA_FILE_NAME);
+        InputStream indexInputStream = jarFile.getInputStream(indexEntry);
+        updater.processIndexV1(indexInputStream, indexEntry, "fakeEtag");
+        fail();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testIndexV1WithCorruptAppPackageName() throws Throwable {
         try {
@@ -221,6 +243,29 @@ public class IndexV1UpdaterTest extends FDroidProviderTest {
         testBadTestyJar("testy.at.or.at_no-signature_index-v1.jar");
     }
 
+    @Test
+    public void testSigningCertFromJarStream() throws IOException, IndexUpdater.UpdateException {
+        File file = TestUtils.copyResourceToTempFile(TESTY_JAR);
+        JarFile jarFile = new JarFile(file, true);
+        JarEntry indexEntry = (JarEntry) jarFile.getEntry(IndexV1Updater.DATA_FILE_NAME);
+        IOUtils.copy(jarFile.getInputStream(indexEntry), NullOutputStream.NULL_OUTPUT_STREAM);
+        X509Certificate expected = IndexUpdater.getSigningCertFromJar(indexEntry);
+
+        InputStream inputStream = new FileInputStream(file);
+        X509Certificate actual = IndexUpdater.getSigningCertFromJarStream(inputStream, IndexV1Updater.DATA_FILE_NAME);
+        inputStream.close();
+        assertEquals(expected, actual);
+        assertEquals(TESTY_CERT, Hasher.hex(actual));
+    }
+
+    @Test
+    public void testSigningCertFromUnsignedJarStream() throws IOException, IndexUpdater.UpdateException {
+        File file = TestUtils.copyResourceToTempFile("testy.at.or.at_no-signature_index-v1.jar");
+        InputStream inputStream = new FileInputStream(file);
+        assertNull(IndexUpdater.getSigningCertFromJarStream(inputStream, IndexV1Updater.DATA_FILE_NAME));
+        inputStream.close();
+    }
+
     private void testBadTestyJar(String jar) throws IOException, IndexUpdater.UpdateException {
         Repo repo = MultiIndexUpdaterTest.createRepo("Testy", jar, context, TESTY_CERT);
         IndexV1Updater updater = new IndexV1Updater(context, repo);
@@ -1,6 +1,7 @@
 package org.fdroid.fdroid.updater;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.util.Log;
 
 import org.fdroid.fdroid.IndexUpdater;
@@ -66,6 +67,46 @@ public class ProperMultiIndexUpdaterTest extends MultiIndexUpdaterTest {
         assertEquals(2, ApkProvider.Helper.findByPackageName(context, "org.dgtale.icsimport").size());
     }
 
+    @Test
+    public void reUpdatingKeepsOtherReposApps() throws IndexUpdater.UpdateException {
+        updateConflicting();
+        updateMain();
+
+        IndexUpdater updater = new IndexUpdater(context, RepoProvider.Helper.findByAddress(context, REPO_CONFLICTING_URI));
+        updateRepo(updater, "multiRepo.conflicting.jar");
+
+        assertCategory("Games", "com.uberspot.a2048");
+        assertCategory("Connectivity", "siir.es.adbWireless");
+        assertCategory("Time", "org.dgtale.icsimport");
+        assertEquals(4, AppProvider.Helper.all(context.getContentResolver()).size());
+        assertMainRepo();
+        assertConflictingRepo();
+    }
+
+    @Test
+    public void shrinkingThenGrowingCategories() throws IndexUpdater.UpdateException {
+        updateMain();
+
+        // One app with three categories, replacing three apps with one category each
+        IndexUpdater updater = new IndexUpdater(context, RepoProvider.Helper.findByAddress(context, REPO_MAIN_URI));
+        updateRepo(updater, "multiRepo.archive.jar");
+
+        assertEquals(1, AppProvider.Helper.all(context.getContentResolver()).size());
+        assertCategory("System", "org.adaway");
+        assertCategory("Security", "org.adaway");
+        assertCategory("Normal", "org.adaway");
+    }
+
+    private void assertCategory(String category, String packageName) {
+        Cursor cursor = context.getContentResolver().query(AppProvider.getCategoryUri(category),
+                AppMetadataTable.Cols.ALL, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(category, 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(category, packageName, new App(cursor).packageName);
+        cursor.close();
+    }
+
     @Test
     public void mainRepo() throws IndexUpdater.UpdateException {
         assertEmpty();
@@ -0,0 +1,157 @@
+package org.fdroid.fdroid.benchmark;
+
+import android.content.ContentValues;
+
+import org.fdroid.fdroid.FDroidApp;
+import org.fdroid.fdroid.IndexUpdater;
+import org.fdroid.fdroid.IndexV1Updater;
+import org.fdroid.fdroid.Preferences;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.FDroidProviderTest;
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoProvider;
+import org.fdroid.fdroid.data.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs whole repo updates, from download through to the committed database, against a
+ * {@link SyntheticRepo} served by a {@link ThrottledLocalHTTPD}.  This takes the same steps
+ * as {@link org.fdroid.fdroid.UpdateService} does for each repo, and reports the wall time,
+ * the peak heap used and the resulting database size.
+ * <p>
+ * The repo shape and the network can be set with system properties, e.g.
+ * <pre>
+ * ./gradlew testFullDebugUnitTest -Pbenchmark --tests '*RepoUpdateBenchmark' \
+ *     -Dfdroid.benchmark.apps=50000 -Dfdroid.benchmark.bytesPerSecond=250000
+ * </pre>
+ *
+ * @see Benchmark
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RepoUpdateBenchmark extends FDroidProviderTest {
+
+    private static final int APPS = Integer.getInteger("fdroid.benchmark.apps", 10000);
+    private static final int VERSIONS = Integer.getInteger("fdroid.benchmark.versions", 3);
+    private static final int LOCALES = Integer.getInteger("fdroid.benchmark.locales", 10);
+    private static final long LATENCY = Long.getLong("fdroid.benchmark.latency", 100);
+    private static final long BYTES_PER_SECOND = Long.getLong("fdroid.benchmark.bytesPerSecond", 0);
+
+    private ThrottledLocalHTTPD server;
+    private String address;
+    private String signingCertificate;
+
+    @BeforeClass
+    public static void onlyWhenRequested() {
+        assumeTrue("Benchmarks only run with -Pbenchmark", Benchmark.isEnabled());
+    }
+
+    @Before
+    public void setup() throws Exception {
+        Preferences.setupForTests(context);
+        for (Repo repo : RepoProvider.Helper.all(context)) {
+            RepoProvider.Helper.remove(context, repo.getId());
+        }
+
+        File webRoot = new File(context.getCacheDir(), "benchmark-webroot");
+        SyntheticRepo syntheticRepo = new SyntheticRepo(context, APPS, VERSIONS, LOCALES);
+        long start = System.currentTimeMillis();
+        syntheticRepo.writeTo(new File(webRoot, "fdroid/repo"));
+        System.out.println("Benchmark: generated " + APPS + " apps in "
+                + (System.currentTimeMillis() - start) + "ms");
+        signingCertificate = syntheticRepo.getSigningCertificate();
+
+        int port = FDroidApp.port + 10;
+        while (Utils.isServerSocketInUse(port)) {
+            port++;
+        }
+        server = new ThrottledLocalHTTPD(context, "127.0.0.1", port, webRoot, LATENCY, BYTES_PER_SECOND);
+        server.start();
+        address = "http://127.0.0.1:" + port + "/fdroid/repo";
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void indexV1() throws Exception {
+        Repo repo = createRepo();
+        IndexUpdater updater = new IndexV1Updater(context, repo);
+        runUpdate("index-v1", updater);
+    }
+
+    @Test
+    public void indexXml() throws Exception {
+        Repo repo = createRepo();
+        IndexUpdater updater = new IndexUpdater(context, repo);
+        runUpdate("index.xml", updater);
+    }
+
+    private Repo createRepo() {
+        ContentValues values = new ContentValues(3);
+        values.put(Schema.RepoTable.Cols.SIGNING_CERT, signingCertificate);
+        values.put(Schema.RepoTable.Cols.ADDRESS, address);
+        values.put(Schema.RepoTable.Cols.NAME, "Synthetic");
+        RepoProvider.Helper.insert(context, values);
+        return RepoProvider.Helper.findByAddress(context, address);
+    }
+
+    private void runUpdate(String name, IndexUpdater updater) throws Exception {
+        resetPeakHeap();
+        long start = System.currentTimeMillis();
+        assertTrue(updater.update());
+        long duration = System.currentTimeMillis() - start;
+
+        assertTrue(updater.hasChanged());
+        assertEquals(APPS, AppProvider.Helper.all(context.getContentResolver()).size());
+
+        File db = context.getDatabasePath("fdroid");
+        File wal = new File(db.getPath() + "-wal");
+        System.out.println(String.format(Locale.ENGLISH,
+                "Benchmark: %s update of %d apps x %d versions x %d locales: %dms, peak heap %dMB, database %dkB",
+                name, APPS, VERSIONS, LOCALES, duration, getPeakHeap() / 1024 / 1024,
+                (db.length() + wal.length()) / 1024));
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * The sum of the peaks of each heap pool, which overestimates slightly since
+     * the pools do not all peak at the same time.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,296 @@
+package org.fdroid.fdroid.benchmark;
+
+import android.content.Context;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.fdroid.fdroid.Hasher;
+import org.fdroid.fdroid.IndexUpdater;
+import org.fdroid.fdroid.IndexV1Updater;
+import org.fdroid.fdroid.nearby.LocalRepoKeyStore;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generates a complete, signed repo with both {@link IndexV1Updater#SIGNED_FILE_NAME}
+ * and {@link IndexUpdater#SIGNED_FILE_NAME} of any size, for measuring updates against
+ * repos much bigger than the test resources, e.g. 10k to 100k apps.  The contents are
+ * random but reproducible, and shaped like f-droid.org: long HTML descriptions, many
+ * locales per app, several versions per app, and a few permissions per version.
+ * <p>
+ * The indexes are signed with the {@link LocalRepoKeyStore}, so a {@link org.fdroid.fdroid.data.Repo}
+ * using {@link #getSigningCertificate()} will verify them.
+ */
+public class SyntheticRepo {
+
+    private static final String[] LOCALES = {
+            "en-US", "de", "fr", "es", "it", "pt-BR", "ru", "zh-CN", "ja", "ko",
+            "nl", "pl", "sv", "tr", "uk", "ar", "he", "fa", "hi", "id",
+    };
+
+    private static final String[] PERMISSIONS = {
+            "android.permission.INTERNET",
+            "android.permission.ACCESS_NETWORK_STATE",
+            "android.permission.WRITE_EXTERNAL_STORAGE",
+            "android.permission.CAMERA",
+            "android.permission.RECEIVE_BOOT_COMPLETED",
+            "android.permission.WAKE_LOCK",
+    };
+
+    private static final String[] CATEGORIES = {
+            "Connectivity", "Development", "Games", "Graphics", "Internet", "Money",
+            "Multimedia", "Navigation", "Phone & SMS", "Reading", "Science & Education",
+            "Security", "Sports & Health", "System", "Theming", "Time", "Writing",
+    };
+
+    private static final String LOREM = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do "
+            + "eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis "
+            + "nostrud exercitation ullamco laboris nisi ut aliquip ex ea commodo consequat. ";
+
+    private final Context context;
+    private final int appCount;
+    private final int versionsPerApp;
+    private final int localesPerApp;
+    private final long timestamp;
+
+    /**
+     * @param localesPerApp how many entries each app has in {@code localized}, up to
+     *                      {@code 20}, the legacy XML index only ever has one language
+     */
+    public SyntheticRepo(Context context, int appCount, int versionsPerApp, int localesPerApp) {
+        this.context = context;
+        this.appCount = appCount;
+        this.versionsPerApp = versionsPerApp;
+        this.localesPerApp = Math.min(localesPerApp, LOCALES.length);
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public String getSigningCertificate() throws LocalRepoKeyStore.InitException {
+        return Hasher.hex(LocalRepoKeyStore.get(context).getCertificate());
+    }
+
+    /**
+     * Writes the signed {@code index-v1.jar} and {@code index.jar} into {@code repoDir}.
+     */
+    public void writeTo(File repoDir) throws IOException, XmlPullParserException, LocalRepoKeyStore.InitException {
+        if (!repoDir.isDirectory() && !repoDir.mkdirs()) {
+            throw new IOException("Could not create " + repoDir);
+        }
+        writeSignedJar(repoDir, IndexV1Updater.SIGNED_FILE_NAME, IndexV1Updater.DATA_FILE_NAME, true);
+        writeSignedJar(repoDir, IndexUpdater.SIGNED_FILE_NAME, IndexUpdater.DATA_FILE_NAME, false);
+    }
+
+    private void writeSignedJar(File repoDir, String jarName, String entryName, boolean json)
+            throws IOException, XmlPullParserException, LocalRepoKeyStore.InitException {
+        File unsigned = new File(repoDir, jarName + ".unsigned");
+        JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(unsigned)));
+        jar.putNextEntry(new JarEntry(entryName));
+        if (json) {
+            writeIndexV1(jar);
+        } else {
+            writeIndexXml(jar);
+        }
+        jar.closeEntry();
+        jar.close();
+        LocalRepoKeyStore.get(context).signZip(unsigned, new File(repoDir, jarName));
+        if (!unsigned.delete()) {
+            throw new IOException("Could not delete " + unsigned);
+        }
+    }
+
+    private static String packageName(int app) {
+        return String.format(Locale.ENGLISH, "org.example.synthetic.app%06d", app);
+    }
+
+    private static String description(Random random) {
+        StringBuilder sb = new StringBuilder("<p>");
+        int sentences = 2 + random.nextInt(20);
+        for (int i = 0; i < sentences; i++) {
+            sb.append(LOREM);
+        }
+        return sb.append("</p>").toString();
+    }
+
+    private void writeIndexV1(OutputStream output) throws IOException {
+        Random random = new Random(appCount);
+        String sig = getSig();
+        JsonGenerator json = new JsonFactory().createGenerator(output);
+        json.writeStartObject();
+
+        json.writeObjectFieldStart("repo");
+        json.writeNumberField("timestamp", timestamp);
+        json.writeNumberField("version", 20);
+        json.writeStringField("name", "Synthetic " + appCount + " apps");
+        json.writeStringField("icon", "icon.png");
+        json.writeStringField("description", "A synthetic repo for benchmarking");
+        json.writeEndObject();
+
+        json.writeObjectFieldStart("requests");
+        json.writeArrayFieldStart("install");
+        json.writeEndArray();
+        json.writeArrayFieldStart("uninstall");
+        json.writeEndArray();
+        json.writeEndObject();
+
+        json.writeArrayFieldStart("apps");
+        for (int i = 0; i < appCount; i++) {
+            json.writeStartObject();
+            json.writeStringField("packageName", packageName(i));
+            json.writeStringField("license", "GPL-3.0-or-later");
+            json.writeArrayFieldStart("categories");
+            json.writeString(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            json.writeEndArray();
+            json.writeStringField("suggestedVersionCode", String.valueOf(versionsPerApp));
+            json.writeStringField("webSite", "https://example.org/" + i);
+            json.writeStringField("sourceCode", "https://example.org/" + i + "/source");
+            json.writeNumberField("added", timestamp - random.nextInt(Integer.MAX_VALUE));
+            json.writeNumberField("lastUpdated", timestamp - random.nextInt(Integer.MAX_VALUE));
+            json.writeStringField("icon", packageName(i) + ".png");
+            json.writeObjectFieldStart("localized");
+            for (int l = 0; l < localesPerApp; l++) {
+                json.writeObjectFieldStart(LOCALES[l]);
+                json.writeStringField("name", "App " + i + " " + LOCALES[l]);
+                json.writeStringField("summary", "Summary of app " + i + " in " + LOCALES[l]);
+                json.writeStringField("description", description(random));
+                json.writeStringField("whatsNew", "Fixes and improvements in " + LOCALES[l]);
+                json.writeArrayFieldStart("phoneScreenshots");
+                json.writeString("1.png");
+                json.writeString("2.png");
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        json.writeObjectFieldStart("packages");
+        for (int i = 0; i < appCount; i++) {
+            json.writeArrayFieldStart(packageName(i));
+            for (int v = versionsPerApp; v > 0; v--) {
+                json.writeStartObject();
+                json.writeStringField("packageName", packageName(i));
+                json.writeNumberField("versionCode", v);
+                json.writeStringField("versionName", "1." + v);
+                json.writeStringField("apkName", packageName(i) + "_" + v + ".apk");
+                json.writeStringField("hash", getHash(random));
+                json.writeStringField("hashType", "sha256");
+                json.writeStringField("sig", sig);
+                json.writeNumberField("size", 100000 + random.nextInt(50000000));
+                json.writeNumberField("minSdkVersion", 14 + random.nextInt(10));
+                json.writeNumberField("targetSdkVersion", 28);
+                json.writeNumberField("added", timestamp - random.nextInt(Integer.MAX_VALUE));
+                json.writeArrayFieldStart("uses-permission");
+                for (int p = random.nextInt(PERMISSIONS.length); p < PERMISSIONS.length; p++) {
+                    json.writeStartArray();
+                    json.writeString(PERMISSIONS[p]);
+                    json.writeNull();
+                    json.writeEndArray();
+                }
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+        }
+        json.writeEndObject();
+
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private void writeIndexXml(OutputStream output)
+            throws IOException, XmlPullParserException, LocalRepoKeyStore.InitException {
+        Random random = new Random(appCount);
+        String sig = getSig();
+        XmlSerializer xml = XmlPullParserFactory.newInstance().newSerializer();
+        xml.setOutput(output, "UTF-8");
+        xml.startDocument(null, null);
+        xml.startTag("", "fdroid");
+
+        xml.startTag("", "repo");
+        xml.attribute("", "icon", "icon.png");
+        xml.attribute("", "name", "Synthetic " + appCount + " apps");
+        xml.attribute("", "pubkey", getSigningCertificate());
+        xml.attribute("", "timestamp", String.valueOf(timestamp / 1000));
+        xml.attribute("", "version", "20");
+        tag(xml, "description", "A synthetic repo for benchmarking");
+        xml.endTag("", "repo");
+
+        for (int i = 0; i < appCount; i++) {
+            xml.startTag("", "application");
+            xml.attribute("", "id", packageName(i));
+            tag(xml, "id", packageName(i));
+            tag(xml, "added", "2017-01-01");
+            tag(xml, "lastupdated", "2018-01-01");
+            tag(xml, "name", "App " + i);
+            tag(xml, "summary", "Summary of app " + i);
+            tag(xml, "icon", packageName(i) + ".png");
+            tag(xml, "desc", description(random));
+            tag(xml, "license", "GPL-3.0-or-later");
+            tag(xml, "categories", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            tag(xml, "web", "https://example.org/" + i);
+            tag(xml, "source", "https://example.org/" + i + "/source");
+            tag(xml, "marketversion", "1." + versionsPerApp);
+            tag(xml, "marketvercode", String.valueOf(versionsPerApp));
+            for (int v = versionsPerApp; v > 0; v--) {
+                xml.startTag("", "package");
+                tag(xml, "version", "1." + v);
+                tag(xml, "versioncode", String.valueOf(v));
+                tag(xml, "apkname", packageName(i) + "_" + v + ".apk");
+                xml.startTag("", "hash");
+                xml.attribute("", "type", "sha256");
+                xml.text(getHash(random));
+                xml.endTag("", "hash");
+                tag(xml, "sig", sig);
+                tag(xml, "size", String.valueOf(100000 + random.nextInt(50000000)));
+                tag(xml, "sdkver", String.valueOf(14 + random.nextInt(10)));
+                tag(xml, "targetSdkVersion", "28");
+                tag(xml, "added", "2018-01-01");
+                StringBuilder permissions = new StringBuilder();
+                for (int p = random.nextInt(PERMISSIONS.length); p < PERMISSIONS.length; p++) {
+                    if (permissions.length() > 0) {
+                        permissions.append(',');
+                    }
+                    permissions.append(PERMISSIONS[p].replace("android.permission.", ""));
+                }
+                tag(xml, "permissions", permissions.toString());
+                xml.endTag("", "package");
+            }
+            xml.endTag("", "application");
+        }
+
+        xml.endTag("", "fdroid");
+        xml.endDocument();
+    }
+
+    private static void tag(XmlSerializer xml, String name, String text) throws IOException {
+        xml.startTag("", name).text(text).endTag("", name);
+    }
+
+    /**
+     * Every app in a synthetic repo is signed by the same fake key.
+     */
+    private static String getSig() {
+        return "d70ac6a02b53ebdd1354ea7af7b9ceee";
+    }
+
+    private static String getHash(Random random) {
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < 4; i++) {
+            sb.append(String.format(Locale.ENGLISH, "%016x", random.nextLong()));
+        }
+        return sb.toString();
+    }
+}
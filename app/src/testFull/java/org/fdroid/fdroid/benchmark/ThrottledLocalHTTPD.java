@@ -0,0 +1,99 @@
+package org.fdroid.fdroid.benchmark;
+
+import android.content.Context;
+
+import org.fdroid.fdroid.nearby.LocalHTTPD;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stand-in for a repo server which serves a directory through {@link LocalHTTPD},
+ * but adds a fixed latency before each response and limits the bandwidth of each
+ * response body, to approximate a real mirror on a slow connection.
+ */
+public class ThrottledLocalHTTPD extends LocalHTTPD {
+
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+
+    /**
+     * @param latencyMillis  added before every response, including {@code HEAD}
+     * @param bytesPerSecond bandwidth of each response, or {@code 0} for unlimited
+     */
+    public ThrottledLocalHTTPD(Context context, String hostname, int port, File webRoot,
+                               long latencyMillis, long bytesPerSecond) {
+        super(context, hostname, port, webRoot, false);
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Response response = super.serve(session);
+        if (bytesPerSecond > 0 && response.getData() != null) {
+            response.setData(new ThrottledInputStream(response.getData(), bytesPerSecond));
+        }
+        return response;
+    }
+
+    /**
+     * Sleeps whenever the bytes read so far would exceed the bandwidth allowed since
+     * the first read.
+     */
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final long bytesPerSecond;
+        private long startTime;
+        private long bytesRead;
+
+        private ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throttle(1);
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // read in small chunks so the rate stays smooth
+            int count = super.read(b, off, (int) Math.min(len, Math.max(1, bytesPerSecond / 10)));
+            if (count > 0) {
+                throttle(count);
+                bytesRead += count;
+            }
+            return count;
+        }
+
+        private void throttle(int count) throws IOException {
+            if (startTime == 0) {
+                startTime = System.currentTimeMillis();
+            }
+            long allowedAt = startTime + (bytesRead + count) * 1000 / bytesPerSecond;
+            long wait = allowedAt - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.fdroid.fdroid.nearby;
+
+import android.Manifest;
+import android.content.Context;
+
+import org.fdroid.fdroid.IndexUpdater;
+import org.fdroid.fdroid.IndexV1Updater;
+import org.fdroid.fdroid.Preferences;
+import org.fdroid.fdroid.data.Apk;
+import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.SanitizedFile;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that what a swap repo serves as {@code index-v1.json} is what
+ * {@link IndexV1Updater} reads on the other device.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class IndexV1BuilderTest {
+
+    private static final String PACKAGE_NAME = "org.example.swapped";
+    private static final String HASH = "8d9e1bbcd7e4b4ce9da1fcb0e0a4bf7de8b8c6a3c1f1b4bb2a9b1bb3e16b2c1f";
+    private static final String SIG = "E5C8A8D0C5C5E1E16C5A3E7D41E4D21F";
+
+    @Test
+    public void testBuildAndParse() throws IOException, IndexUpdater.UpdateException {
+        Context context = ApplicationProvider.getApplicationContext();
+        Preferences.setupForTests(context);
+
+        File apkFile = File.createTempFile("IndexV1BuilderTest", ".apk");
+        FileOutputStream apkOutput = new FileOutputStream(apkFile);
+        apkOutput.write(new byte[1234]);
+        apkOutput.close();
+
+        Apk apk = new Apk();
+        apk.packageName = PACKAGE_NAME;
+        apk.versionName = "1.2.3";
+        apk.versionCode = 123;
+        apk.apkName = PACKAGE_NAME + "_123.apk";
+        apk.hash = HASH;
+        apk.hashType = "sha256";
+        apk.sig = SIG;
+        apk.installedFile = new SanitizedFile(apkFile.getParentFile(), apkFile.getName());
+        apk.added = new Date(1500000000000L);
+        apk.minSdkVersion = 14;
+        apk.targetSdkVersion = 28;
+        apk.requestedPermissions = new String[]{Manifest.permission.INTERNET, Manifest.permission.CAMERA};
+
+        App app = new App();
+        app.packageName = PACKAGE_NAME;
+        app.name = "Swapped";
+        app.summary = "An app for swapping";
+        app.added = apk.added;
+        app.lastUpdated = apk.added;
+        app.installedApk = apk;
+
+        Map<String, App> apps = new HashMap<>();
+        apps.put(PACKAGE_NAME, app);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LocalRepoManager.IndexV1Builder(output).build(apps);
+
+        Repo repo = new Repo();
+        repo.address = "http://127.0.0.1:8888/fdroid/repo";
+        IndexV1Updater updater = new IndexV1Updater(context, repo);
+        IndexV1Updater.ParsedIndexV1 index = updater.parseIndexV1(new ByteArrayInputStream(output.toByteArray()));
+        apkFile.delete();
+
+        assertNotNull(index.repo);
+        assertTrue(index.repo.get("timestamp") instanceof Long);
+
+        assertEquals(1, index.apps.length);
+        App parsedApp = index.apps[0];
+        assertEquals(PACKAGE_NAME, parsedApp.packageName);
+        assertEquals("Swapped", parsedApp.name);
+        assertEquals(PACKAGE_NAME + "_123.webp", parsedApp.iconFromApk);
+
+        assertEquals(1, index.packages.size());
+        List<Apk> parsedApks = index.packages.get(PACKAGE_NAME);
+        assertEquals(1, parsedApks.size());
+        Apk parsedApk = parsedApks.get(0);
+        assertEquals(PACKAGE_NAME, parsedApk.packageName);
+        assertEquals("1.2.3", parsedApk.versionName);
+        assertEquals(123, parsedApk.versionCode);
+        assertEquals(apk.apkName, parsedApk.apkName);
+        assertEquals(HASH, parsedApk.hash);
+        assertEquals("sha256", parsedApk.hashType);
+        assertEquals(SIG.toLowerCase(Locale.US), parsedApk.sig);
+        assertEquals(1234, parsedApk.size);
+        assertEquals(14, parsedApk.minSdkVersion);
+        assertEquals(28, parsedApk.targetSdkVersion);
+        List<String> permissions = Arrays.asList(parsedApk.requestedPermissions);
+        assertTrue(permissions.contains(Manifest.permission.INTERNET));
+        assertTrue(permissions.contains(Manifest.permission.CAMERA));
+    }
+}
@@ -48,19 +48,26 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 import androidx.test.core.app.ApplicationProvider;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -301,6 +308,108 @@ public class LocalHTTPDTest {
         }
     }
 
+    @Test
+    public void testConnectionsPerClientAreLimited() throws IOException, InterruptedException {
+        final int testPort = 9459;
+        SwapAsyncRunner asyncRunner = new SwapAsyncRunner(4, 4, 2);
+        LocalHTTPD localHttpd = new LocalHTTPD(ApplicationProvider.getApplicationContext(),
+                "localhost", testPort, webRoot, false, asyncRunner);
+        localHttpd.start();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                Socket socket = new Socket("localhost", testPort);
+                socket.setSoTimeout(1000);
+                sockets.add(socket);
+            }
+            Thread.sleep(200);
+            Socket waiting = sockets.get(2);
+            sendGet(waiting, "/testdir/test.html");
+            try {
+                waiting.getInputStream().read();
+                Assert.fail("the connection over the limit waits");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+            assertEquals(0, asyncRunner.getRejectedCount());
+
+            sockets.get(0).close();
+            Assert.assertThat("the waiting connection is served once another one is done",
+                    readStatusLine(waiting), startsWith("HTTP/1.1 200 OK"));
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            localHttpd.stop();
+        }
+    }
+
+    @Test
+    public void testConnectionsOverTheQueueAreTurnedAway() throws IOException, InterruptedException {
+        final int testPort = 9460;
+        SwapAsyncRunner asyncRunner = new SwapAsyncRunner(1, 1, 10);
+        LocalHTTPD localHttpd = new LocalHTTPD(ApplicationProvider.getApplicationContext(),
+                "localhost", testPort, webRoot, false, asyncRunner);
+        localHttpd.start();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                Socket socket = new Socket("localhost", testPort);
+                socket.setSoTimeout(1000);
+                sockets.add(socket);
+            }
+            Thread.sleep(200);
+            sendGet(sockets.get(2), "/testdir/test.html");
+            Assert.assertThat(readStatusLine(sockets.get(2)), startsWith("HTTP/1.1 503 Service Unavailable"));
+            assertEquals(1, asyncRunner.getRejectedCount());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            localHttpd.stop();
+        }
+    }
+
+    private static void sendGet(Socket socket, String path) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private static String readStatusLine(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine();
+    }
+
+    @Test
+    public void testIndexChanges() throws IOException {
+        File repoDir = new File(webRoot, "fdroid/repo");
+        assertTrue(repoDir.mkdirs());
+        final File indexFile = new File(repoDir, "index-v1.jar");
+        FileUtils.writeStringToFile(indexFile, "first index", "UTF-8");
+        String repoAddress = baseUrl + "/fdroid/repo";
+
+        String token = SwapIndexWatcher.requestChange(repoAddress, null);
+        assertEquals(SwapIndexWatcher.getToken(indexFile), token);
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                    FileUtils.writeStringToFile(indexFile, "second, longer index", "UTF-8");
+                } catch (InterruptedException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+                SwapIndexWatcher.notifyIndexChanged();
+            }
+        }.start();
+        long start = System.currentTimeMillis();
+        String newToken = SwapIndexWatcher.requestChange(repoAddress, token);
+        assertTrue("should have waited for the change", System.currentTimeMillis() - start >= 400);
+        assertNotEquals(token, newToken);
+        assertEquals(SwapIndexWatcher.getToken(indexFile), newToken);
+    }
+
     @Test
     public void testURLContainsParentDirectory() throws IOException {
         HttpURLConnection connection = null;
@@ -415,6 +524,32 @@ public class LocalHTTPDTest {
         }
     }
 
+    @Test
+    public void testRangeHeaderPastEndAndSuffix() throws IOException {
+        HttpURLConnection connection = null;
+        try {
+            URL url = new URL(baseUrl + "/testdir/test.html");
+            connection = (HttpURLConnection) url.openConnection();
+            connection.addRequestProperty("range", "bytes=10-1000");
+            Assert.assertEquals(74, IOUtils.toString(connection.getInputStream(), "UTF-8").length());
+            Assert.assertEquals("74", connection.getHeaderField("Content-Length"));
+            Assert.assertEquals("bytes 10-83/84", connection.getHeaderField("Content-Range"));
+            connection.disconnect();
+
+            connection = (HttpURLConnection) url.openConnection();
+            connection.addRequestProperty("range", "bytes=-8");
+            String responseString = IOUtils.toString(connection.getInputStream(), "UTF-8");
+            Assert.assertThat(responseString, containsString("</html>"));
+            Assert.assertEquals("8", connection.getHeaderField("Content-Length"));
+            Assert.assertEquals("bytes 76-83/84", connection.getHeaderField("Content-Range"));
+            Assert.assertEquals(206, connection.getResponseCode());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
     @Test
     public void testIfNoneMatchHeader() throws IOException {
         HttpURLConnection connection = null;
@@ -12,6 +12,7 @@ import org.apache.commons.net.util.SubnetUtils;
 import org.fdroid.fdroid.FDroidApp;
 import org.fdroid.fdroid.Hasher;
 import org.fdroid.fdroid.IndexUpdater;
+import org.fdroid.fdroid.IndexV1Updater;
 import org.fdroid.fdroid.Preferences;
 import org.fdroid.fdroid.TestUtils;
 import org.fdroid.fdroid.Utils;
@@ -169,6 +170,15 @@ public class SwapRepoTest {
             for (Apk apk : apks) {
                 System.out.println(apk);
             }
+
+            File indexV1JarFile = LocalRepoManager.get(context).getIndexV1Jar();
+            assertTrue(indexV1JarFile.isFile());
+            IndexV1Updater updaterV1 = new IndexV1Updater(context, repo);
+            assertTrue(updaterV1.update());
+            assertTrue(updaterV1.hasChanged());
+            apks = ApkProvider.Helper.findByRepo(context, repo, Schema.ApkTable.Cols.ALL);
+            assertEquals(1, apks.size());
+            assertEquals(context.getPackageName(), apks.get(0).packageName);
             //MultiIndexUpdaterTest.assertApksExist(apks, context.getPackageName(), new int[]{BuildConfig.VERSION_CODE});
             Thread.sleep(10000);
         } finally {